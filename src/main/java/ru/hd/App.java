@@ -1,7 +1,9 @@
 package ru.hd;
 
 import com.vaadin.flow.component.page.AppShellConfigurator;
+import com.vaadin.flow.component.page.Push;
 import com.vaadin.flow.server.VaadinServlet;
+import com.vaadin.flow.shared.ui.Transport;
 import com.vaadin.flow.theme.Theme;
 import com.vaadin.flow.theme.lumo.Lumo;
 import org.eclipse.jetty.annotations.AnnotationConfiguration;
@@ -11,9 +13,18 @@ import org.eclipse.jetty.webapp.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.hd.gui.view.MainView;
+import ru.hd.service.AccountNumberIndex;
+import ru.hd.service.BalanceSnapshotScheduler;
+import ru.hd.service.PartitionMaintenanceScheduler;
+import ru.hd.service.PassportScanMigrator;
+import ru.hd.service.TransferPipeline;
+import ru.hd.util.HibernateUtil;
+import ru.hd.util.ScheduledJob;
 
 import java.io.File;
 
+// Результаты асинхронных переводов доставляются в интерфейс через push
+@Push(transport = Transport.LONG_POLLING)
 @Theme(value = "main-theme", variant = Lumo.DARK)
 public class App implements AppShellConfigurator {
     private static final Logger logger = LoggerFactory.getLogger(App.class);
@@ -28,12 +39,24 @@ public class App implements AppShellConfigurator {
         context.addServlet(vaadinServlet, "/*");
 
         server.setHandler(context);
+        AccountNumberIndex.forSessionFactory(HibernateUtil.getSessionFactory());
+        new PartitionMaintenanceScheduler().start();
+        new BalanceSnapshotScheduler(HibernateUtil.getSessionFactory()).start();
+        new PassportScanMigrator().start();
+        HibernateUtil.scheduleCacheStatisticsLog();
+        Runtime.getRuntime().addShutdownHook(new Thread(App::shutdown, "shutdown"));
         server.start();
         logger.info("Server started!");
         server.join();
 
     }
 
+    private static void shutdown() {
+        TransferPipeline.shutdownInstance();
+        ScheduledJob.stopAll();
+        logger.info("Фоновые задачи остановлены");
+    }
+
     private static WebAppContext getWebAppContext() {
         WebAppContext context = new WebAppContext();
         context.setContextPath("/");
@@ -0,0 +1,7 @@
+package ru.hd.exception;
+
+public class TransactionConflictException extends BankingOperationException {
+    public TransactionConflictException(int attempts) {
+        super("Операция не выполнена из-за параллельного изменения счетов, попыток: " + attempts);
+    }
+}
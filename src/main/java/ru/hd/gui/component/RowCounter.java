@@ -0,0 +1,55 @@
+package ru.hd.gui.component;
+
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.button.ButtonVariant;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.icon.VaadinIcon;
+import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.util.HibernateUtil;
+
+import java.util.function.ToLongFunction;
+
+// Число строк таблицы: по умолчанию оценка планировщика, точный COUNT только по кнопке
+public class RowCounter extends HorizontalLayout {
+    private static final Logger logger = LoggerFactory.getLogger(RowCounter.class);
+
+    private final ToLongFunction<Session> estimatedCount;
+    private final ToLongFunction<Session> exactCount;
+    private final Span label = new Span();
+
+    public RowCounter(ToLongFunction<Session> estimatedCount, ToLongFunction<Session> exactCount) {
+        this.estimatedCount = estimatedCount;
+        this.exactCount = exactCount;
+
+        Button countButton = new Button("Подсчитать", VaadinIcon.CALC.create());
+        countButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY);
+        countButton.addClickListener(_ -> showExactCount());
+
+        setAlignItems(Alignment.CENTER);
+        add(label, countButton);
+    }
+
+    public long refreshEstimate() {
+        long estimate;
+        try (Session session = HibernateUtil.openReadOnlySession()) {
+            estimate = estimatedCount.applyAsLong(session);
+        } catch (RuntimeException e) {
+            logger.warn("Не удалось получить оценку числа строк", e);
+            estimate = 0;
+        }
+        label.setText(estimate > 0 ? "Записей: ~" + estimate : "");
+        return estimate;
+    }
+
+    private void showExactCount() {
+        try (Session session = HibernateUtil.openReadOnlySession()) {
+            label.setText("Записей: " + exactCount.applyAsLong(session));
+        } catch (RuntimeException e) {
+            logger.error("Ошибка подсчета числа строк", e);
+            label.setText("Записей: ?");
+        }
+    }
+}
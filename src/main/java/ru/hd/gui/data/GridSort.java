@@ -0,0 +1,19 @@
+package ru.hd.gui.data;
+
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.provider.SortDirection;
+import ru.hd.model.SortCriteria;
+
+// Свойство сортировки колонки - имя константы перечисления допустимых полей;
+// учитывается первая колонка сортировки, остальные игнорируются
+public class GridSort {
+
+    public static <F extends Enum<F>> SortCriteria<F> toCriteria(Query<?, ?> query, Class<F> fieldType,
+                                                                 SortCriteria<F> defaultSort) {
+        return query.getSortOrders().stream()
+                .findFirst()
+                .map(order -> new SortCriteria<>(Enum.valueOf(fieldType, order.getSorted()),
+                        order.getDirection() == SortDirection.DESCENDING))
+                .orElse(defaultSort);
+    }
+}
@@ -0,0 +1,64 @@
+package ru.hd.gui.data;
+
+import org.hibernate.Session;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+// Переводит запросы грида "смещение + лимит" в постраничную выборку по ключу.
+// Для каждой загруженной страницы запоминается ключ ее последней строки; следующая страница
+// читается условием "ключ больше запомненного", а при переходе в произвольное место выборка
+// начинается от ближайшего известного ключа выше, так что пропускаются только строки между ними.
+// Стоимость не зависит от глубины только при последовательной прокрутке. Прыжок ползунком в
+// непросмотренную область пропускает строки от ближайшего ключа через OFFSET, то есть стоит
+// пропорционально расстоянию до него, а без запомненных ключей - до начала выборки. Поиск по
+// оценочному ключу здесь не используется: грид ждет строку точно на запрошенной позиции
+public class KeysetPager<T, K> {
+    private static final int MAX_REMEMBERED_KEYS = 10_000;
+
+    @FunctionalInterface
+    public interface PageLoader<T, K> {
+        List<T> load(Session session, K after, int skip, int limit);
+    }
+
+    private final Function<T, K> keyExtractor;
+    private final PageLoader<T, K> pageLoader;
+    private final NavigableMap<Integer, K> keysByPosition = new TreeMap<>();
+
+    public KeysetPager(Function<T, K> keyExtractor, PageLoader<T, K> pageLoader) {
+        this.keyExtractor = keyExtractor;
+        this.pageLoader = pageLoader;
+    }
+
+    public synchronized List<T> fetch(Session session, int offset, int limit) {
+        Map.Entry<Integer, K> anchor = offset > 0 ? keysByPosition.floorEntry(offset - 1) : null;
+        K after = anchor != null ? anchor.getValue() : null;
+        int skip = anchor != null ? offset - anchor.getKey() - 1 : offset;
+
+        List<T> page = pageLoader.load(session, after, skip, limit);
+        if (!page.isEmpty()) {
+            int position = offset + page.size() - 1;
+            if (keysByPosition.size() >= MAX_REMEMBERED_KEYS && !keysByPosition.containsKey(position)) {
+                evictFarthestFrom(position);
+            }
+            keysByPosition.put(position, keyExtractor.apply(page.getLast()));
+        }
+        return page;
+    }
+
+    // Вытесняется ключ, дальний от текущей позиции: крайний с той или другой стороны. Ключи рядом с
+    // просматриваемой областью остаются, и прокрутка не начинает снова пропускать строки от начала
+    private void evictFarthestFrom(int position) {
+        int first = keysByPosition.firstKey();
+        int last = keysByPosition.lastKey();
+        keysByPosition.remove(position - first >= last - position ? first : last);
+    }
+
+    // Вызывается при обновлении грида: после вставок и удалений запомненные позиции неверны
+    public synchronized void reset() {
+        keysByPosition.clear();
+    }
+}
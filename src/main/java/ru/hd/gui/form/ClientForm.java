@@ -2,25 +2,38 @@ package ru.hd.gui.form;
 
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.formlayout.FormLayout;
+import com.vaadin.flow.component.html.Image;
 import com.vaadin.flow.component.notification.Notification;
 import com.vaadin.flow.component.textfield.TextField;
 import com.vaadin.flow.component.upload.Upload;
-import com.vaadin.flow.component.upload.receivers.MemoryBuffer;
+import com.vaadin.flow.component.upload.receivers.FileBuffer;
 import com.vaadin.flow.data.binder.Binder;
+import com.vaadin.flow.server.AbstractStreamResource;
 import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.hd.jpa.Client;
 import ru.hd.util.ValidationPattern;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.stream.Stream;
 
 public class ClientForm extends FormLayout {
+    private static final Logger logger = LoggerFactory.getLogger(ClientForm.class);
+
     private final TextField fullNameField = new TextField("ФИО");
     private final TextField phoneField = new TextField("Телефон");
     private final TextField innField = new TextField("ИНН");
     private final TextField addressField = new TextField("Адрес");
     private final Upload passportUpload = new Upload();
+    private final Image scanThumbnail = new Image();
+    // Загрузка пишется во временный файл, а не в память процесса
+    private final FileBuffer fileBuffer = new FileBuffer();
+    // Файл последней успешной загрузки в этой форме; null - скан не менялся
     @Getter
-    private final MemoryBuffer memoryBuffer = new MemoryBuffer();
+    private Path uploadedScan;
     @Getter
     private final Binder<Client> binder = new Binder<>(Client.class);
     @Getter
@@ -42,12 +55,16 @@ public class ClientForm extends FormLayout {
                     field.setRequiredIndicatorVisible(true);
                 });
 
-        passportUpload.setReceiver(memoryBuffer);
+        passportUpload.setReceiver(fileBuffer);
         passportUpload.setWidthFull();
+
+        scanThumbnail.setAlt("Скан паспорта");
+        scanThumbnail.setMaxHeight("160px");
+        scanThumbnail.setVisible(false);
     }
 
     private void setupLayout() {
-        add(fullNameField, phoneField, innField, addressField, passportUpload, saveButton);
+        add(fullNameField, phoneField, innField, addressField, passportUpload, scanThumbnail, saveButton);
         setResponsiveSteps(
                 new ResponsiveStep("0", 1),
                 new ResponsiveStep("600px", 2)
@@ -78,12 +95,19 @@ public class ClientForm extends FormLayout {
     }
 
     private void configureUpload() {
-        passportUpload.addSucceededListener(event -> Notification.show("Файл успешно загружен: " + event.getFileName()));
+        passportUpload.addSucceededListener(event -> {
+            discardUploadedScan();
+            uploadedScan = fileBuffer.getFileData().getFile().toPath();
+            Notification.show("Файл успешно загружен: " + event.getFileName());
+        });
 
         passportUpload.addFailedListener(_ -> Notification.show("Не удалось загрузить файл"));
     }
 
     public void setClient(Client client) {
+        discardUploadedScan();
+        passportUpload.clearFileList();
+        scanThumbnail.setVisible(false);
         this.client = client;
         binder.readBean(client);
 
@@ -91,4 +115,23 @@ public class ClientForm extends FormLayout {
             Notification.show("Скан паспорта уже загружен");
         }
     }
-}
\ No newline at end of file
+
+    // Миниатюра уже загруженного скана вместо полного изображения
+    public void showScanThumbnail(AbstractStreamResource resource) {
+        scanThumbnail.setSrc(resource);
+        scanThumbnail.setVisible(true);
+    }
+
+    // Временный файл удаляется после сохранения или при открытии формы для другого клиента
+    public void discardUploadedScan() {
+        if (uploadedScan == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(uploadedScan);
+        } catch (IOException e) {
+            logger.warn("Не удалось удалить временный файл скана {}", uploadedScan, e);
+        }
+        uploadedScan = null;
+    }
+}
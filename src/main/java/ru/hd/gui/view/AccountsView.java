@@ -1,38 +1,66 @@
 package ru.hd.gui.view;
 
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.dialog.Dialog;
 import com.vaadin.flow.component.grid.Grid;
+import com.vaadin.flow.component.html.Span;
 import com.vaadin.flow.component.icon.VaadinIcon;
 import com.vaadin.flow.component.notification.Notification;
+import com.vaadin.flow.component.orderedlayout.FlexComponent;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
-import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.component.progressbar.ProgressBar;
+import com.vaadin.flow.component.upload.Upload;
+import com.vaadin.flow.component.upload.receivers.FileBuffer;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
 import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.hd.gui.MainLayout;
+import ru.hd.gui.component.RowCounter;
+import ru.hd.gui.data.GridSort;
+import ru.hd.gui.data.KeysetPager;
 import ru.hd.gui.form.AccountForm;
 import ru.hd.gui.form.DepositForm;
 import ru.hd.gui.form.TransferForm;
 import ru.hd.gui.form.WithdrawForm;
 import ru.hd.jpa.Account;
+import ru.hd.model.AccountSortField;
 import ru.hd.model.AccountStatus;
+import ru.hd.model.PayrollImportResult;
+import ru.hd.model.RejectedLine;
+import ru.hd.model.SortCriteria;
+import ru.hd.model.SortKey;
+import ru.hd.model.TransferResult;
 import ru.hd.service.AccountService;
+import ru.hd.service.PayrollImportService;
 import ru.hd.service.TransactionService;
+import ru.hd.service.TransferPipeline;
 import ru.hd.util.HibernateUtil;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.math.BigDecimal;
 
 @PageTitle("Счета")
 @Route(value = "accounts", layout = MainLayout.class)
 public class AccountsView extends VerticalLayout {
     private static final Logger logger = LoggerFactory.getLogger(AccountsView.class);
+    private static final SortCriteria<AccountSortField> DEFAULT_SORT = SortCriteria.ascending(AccountSortField.ID);
 
     private final AccountService accountService = new AccountService();
     private final TransactionService transactionService = new TransactionService();
+    private SortCriteria<AccountSortField> accountSort = DEFAULT_SORT;
+    // После зачислений и пакетной загрузки список какое-то время читается с основной БД
+    private volatile long lastWriteAt;
+    private final KeysetPager<Account, SortKey> accountPager = new KeysetPager<>(
+            account -> AccountService.sortKeyOf(account, accountSort.field()),
+            (session, after, skip, limit) -> accountService.getAccountsAfter(session, accountSort, after, skip, limit));
+    private final RowCounter rowCounter = new RowCounter(accountService::estimateAccountsCount, accountService::getTotalAccountsCount);
 
     private final Grid<Account> grid = new Grid<>(Account.class, false);
 
@@ -45,19 +73,29 @@ public class AccountsView extends VerticalLayout {
     private final Dialog withdrawDialog = new Dialog();
     private final WithdrawForm withdrawForm = new WithdrawForm();
 
+    private final PayrollImportService payrollImportService = new PayrollImportService();
+    private final FileBuffer payrollBuffer = new FileBuffer();
+    private final Upload payrollUpload = new Upload(payrollBuffer);
+    private final ProgressBar payrollProgress = new ProgressBar();
+    private final Span payrollStatus = new Span();
+
     public AccountsView() {
         configureGrid();
         configureAccountDialog();
         configureDepositDialog();
         configureTransferDialog();
         configureWithdrawDialog();
-        add(grid);
-        updateGridData();
+        configurePayrollUpload();
+
+        HorizontalLayout toolbar = new HorizontalLayout(payrollUpload, payrollProgress, payrollStatus, rowCounter);
+        toolbar.setAlignItems(FlexComponent.Alignment.CENTER);
+        add(toolbar, grid);
     }
 
     private void configureGrid() {
         grid.addColumn(Account::getAccountNumber)
                 .setHeader("Номер счета")
+                .setSortProperty(AccountSortField.ACCOUNT_NUMBER.name())
                 .setAutoWidth(false)
                 .setWidth("250px")
                 .setFlexGrow(0);
@@ -72,8 +110,10 @@ public class AccountsView extends VerticalLayout {
                 .setWidth("120px")
                 .setFlexGrow(0);
 
+        // Баланс меняется каждой операцией: индекс для сортировки по нему замедлил бы все записи
         grid.addColumn(Account::getBalance)
                 .setHeader("Баланс")
+                .setSortable(false)
                 .setWidth("150px")
                 .setFlexGrow(0);
 
@@ -120,27 +160,36 @@ public class AccountsView extends VerticalLayout {
                     );
                     closeButton.addClickListener(_ -> closeAccount(account));
 
-                    return new HorizontalLayout(editButton, depositButton, transferButton, withdrawButton, closeButton);
+                    Button statementButton = new Button(VaadinIcon.LIST.create());
+                    statementButton.setTooltipText("Выписка по счету");
+                    statementButton.addClickListener(_ -> UI.getCurrent().navigate(StatementView.class, account.getId()));
+
+                    return new HorizontalLayout(editButton, depositButton, transferButton, withdrawButton, closeButton,
+                            statementButton);
                 }).setHeader("Действия")
-                .setWidth("300px")
+                .setWidth("360px")
                 .setFlexGrow(0);
 
         grid.setWidthFull();
         grid.setHeight("calc(100vh - 115px)");
         grid.setPageSize(50);
 
-        grid.setDataProvider(DataProvider.fromCallbacks(
-                query -> {
-                    try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                        return accountService.getAccounts(session, query.getOffset(), query.getLimit()).stream();
-                    }
-                },
-                _ -> {
-                    try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                        return accountService.getTotalAccountsCount(session);
-                    }
-                }
-        ));
+        // Размер заранее не известен: грид подгружает страницы, пока они не закончатся,
+        // а полоса прокрутки строится по оценке планировщика
+        grid.setItems(query -> {
+            SortCriteria<AccountSortField> sort = GridSort.toCriteria(query, AccountSortField.class, DEFAULT_SORT);
+            if (!sort.equals(accountSort)) {
+                accountSort = sort;
+                accountPager.reset();
+            }
+            try (Session session = HibernateUtil.openReadOnlySession(lastWriteAt)) {
+                return accountPager.fetch(session, query.getOffset(), query.getLimit()).stream();
+            }
+        });
+        grid.getLazyDataView().setItemCountEstimate(
+                (int) Math.min(Integer.MAX_VALUE, Math.max(rowCounter.refreshEstimate(), grid.getPageSize())));
+        // Account сравнивается по всем полям, а строки грида нужно узнавать по id и после изменения баланса
+        grid.getLazyDataView().setIdentifierProvider(Account::getId);
     }
 
     private void configureAccountDialog() {
@@ -152,7 +201,7 @@ public class AccountsView extends VerticalLayout {
                 accountService.updateAccount(session, event.getAccount());
                 Notification.show("Счет обновлен", 3000, Notification.Position.TOP_CENTER);
                 accountDialog.close();
-                updateGridData();
+                refreshAccounts(event.getAccount().getId());
             } catch (Exception e) {
                 logger.error("Ошибка обновления счета", e);
                 Notification.show("Ошибка: " + e.getMessage(), 10_000, Notification.Position.TOP_CENTER);
@@ -175,7 +224,7 @@ public class AccountsView extends VerticalLayout {
                 transactionService.depositToAccount(session, event.getAccount(), event.getAmount());
                 Notification.show("Баланс пополнен", 3000, Notification.Position.TOP_CENTER);
                 depositDialog.close();
-                updateGridData();
+                refreshAccounts(event.getAccount().getId());
             } catch (Exception e) {
                 logger.error("Ошибка пополнения баланса", e);
                 Notification.show("Ошибка: " + e.getMessage(), 10_000, Notification.Position.TOP_CENTER);
@@ -194,25 +243,51 @@ public class AccountsView extends VerticalLayout {
         transferDialog.add(transferForm);
 
         transferForm.addTransferListener(event -> {
+            Long toAccountId;
             try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                Account toAccount = accountService.findAccountByNumber(session, event.getToAccountNumber());
-                transactionService.transfer(
-                        session,
-                        event.getFromAccount().getId(),
-                        toAccount.getId(),
-                        event.getAmount()
-                );
-
-                Notification.show("Перевод выполнен", 3000, Notification.Position.TOP_CENTER);
-                transferDialog.close();
-                updateGridData();
+                toAccountId = accountService.resolveAccountId(session, event.getToAccountNumber());
             } catch (Exception e) {
                 logger.error("Ошибка перевода средств", e);
                 Notification.show("Ошибка: " + e.getMessage(), 10_000, Notification.Position.TOP_CENTER);
+                return;
             }
+
+            UI ui = UI.getCurrent();
+            Long fromAccountId = event.getFromAccount().getId();
+            TransferPipeline.getInstance()
+                    .submit(fromAccountId, toAccountId, event.getAmount())
+                    .whenComplete((result, error) -> {
+                        // Пользователь мог закрыть вкладку, пока перевод ждал в очереди
+                        if (!ui.isAttached()) {
+                            logger.debug("Результат перевода не показан: интерфейс отключен, fromAccountId={}", fromAccountId);
+                            return;
+                        }
+                        try {
+                            ui.access(() -> {
+                                showTransferResult(result, error);
+                                refreshAccounts(fromAccountId, toAccountId);
+                            });
+                        } catch (UIDetachedException e) {
+                            logger.debug("Результат перевода не показан: интерфейс отключен, fromAccountId={}", fromAccountId);
+                        }
+                    });
+
+            Notification.show("Перевод принят в обработку", 3000, Notification.Position.TOP_CENTER);
+            transferDialog.close();
         });
     }
 
+    private void showTransferResult(TransferResult result, Throwable error) {
+        if (error != null) {
+            logger.error("Ошибка перевода средств", error);
+            Notification.show("Ошибка: " + error.getMessage(), 10_000, Notification.Position.TOP_CENTER);
+        } else if (result.isCompleted()) {
+            Notification.show("Перевод выполнен", 3000, Notification.Position.TOP_CENTER);
+        } else {
+            Notification.show("Перевод отклонен: " + result.errorMessage(), 10_000, Notification.Position.TOP_CENTER);
+        }
+    }
+
     private void openTransferForm(Account account) {
         transferForm.setAccount(account);
         transferDialog.setHeaderTitle("Перевод со счета " + account.getAccountNumber());
@@ -223,7 +298,7 @@ public class AccountsView extends VerticalLayout {
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
             accountService.closeAccount(session, account);
             Notification.show("Счет закрыт", 3000, Notification.Position.TOP_CENTER);
-            updateGridData();
+            refreshAccounts(account.getId());
         } catch (Exception e) {
             logger.error("Ошибка закрытия счета", e);
             Notification.show("Ошибка: " + e.getMessage(), 10_000, Notification.Position.TOP_CENTER);
@@ -239,7 +314,7 @@ public class AccountsView extends VerticalLayout {
                 transactionService.withdrawFromAccount(session, event.getAccount(), event.getAmount());
                 Notification.show("Средства сняты", 3000, Notification.Position.TOP_CENTER);
                 withdrawDialog.close();
-                updateGridData();
+                refreshAccounts(event.getAccount().getId());
             } catch (Exception e) {
                 logger.error("Ошибка снятия средств", e);
                 Notification.show("Ошибка: " + e.getMessage(), 10_000, Notification.Position.TOP_CENTER);
@@ -253,11 +328,96 @@ public class AccountsView extends VerticalLayout {
         withdrawDialog.open();
     }
 
-    private void updateGridData() {
+    private void configurePayrollUpload() {
+        payrollUpload.setAcceptedFileTypes(".csv", "text/csv");
+        payrollUpload.setDropAllowed(false);
+        payrollUpload.setUploadButton(new Button("Зарплатный реестр", VaadinIcon.UPLOAD.create()));
+        payrollUpload.addSucceededListener(_ -> importPayroll(payrollBuffer.getFileData().getFile()));
+
+        payrollProgress.setIndeterminate(true);
+        payrollProgress.setWidth("200px");
+        payrollProgress.setVisible(false);
+    }
+
+    // Реестр обрабатывается в фоне, ход загрузки приходит в интерфейс через push
+    private void importPayroll(File file) {
+        UI ui = UI.getCurrent();
+        payrollUpload.setVisible(false);
+        payrollProgress.setVisible(true);
+        payrollStatus.setText("Загрузка реестра...");
+
+        Thread.ofVirtual().name("payroll-import").start(() -> {
+            try (Session session = HibernateUtil.getSessionFactory().openSession();
+                 InputStream csv = new FileInputStream(file)) {
+                PayrollImportResult result = payrollImportService.importPayroll(session, csv,
+                        lines -> ui.access(() -> payrollStatus.setText("Обработано строк: " + lines)));
+                ui.access(() -> {
+                    finishPayrollImport();
+                    showPayrollResult(result);
+                });
+            } catch (Exception e) {
+                logger.error("Ошибка загрузки зарплатного реестра", e);
+                ui.access(() -> {
+                    finishPayrollImport();
+                    Notification.show("Ошибка: " + e.getMessage(), 10_000, Notification.Position.TOP_CENTER);
+                });
+            } finally {
+                if (!file.delete()) {
+                    logger.warn("Не удалось удалить временный файл реестра {}", file);
+                }
+            }
+        });
+    }
+
+    private void finishPayrollImport() {
+        payrollUpload.clearFileList();
+        payrollUpload.setVisible(true);
+        payrollProgress.setVisible(false);
+        payrollStatus.setText("");
+    }
+
+    private void showPayrollResult(PayrollImportResult result) {
+        Notification.show("Зачислено: " + result.credited() + " на сумму " + result.totalAmount() +
+                ", отклонено строк: " + result.rejectedCount(), 5000, Notification.Position.TOP_CENTER);
+        updateGridData();
+        if (!result.hasRejections()) {
+            return;
+        }
+
+        Grid<RejectedLine> rejectedGrid = new Grid<>(RejectedLine.class, false);
+        rejectedGrid.addColumn(RejectedLine::lineNumber).setHeader("Строка").setWidth("100px").setFlexGrow(0);
+        rejectedGrid.addColumn(RejectedLine::content).setHeader("Содержимое");
+        rejectedGrid.addColumn(RejectedLine::reason).setHeader("Причина");
+        rejectedGrid.setItems(result.rejectedLines());
+
+        Dialog dialog = new Dialog();
+        dialog.setHeaderTitle("Отклонено строк: " + result.rejectedCount() +
+                (result.rejectedCount() > result.rejectedLines().size()
+                        ? " (показаны первые " + result.rejectedLines().size() + ")" : ""));
+        dialog.setWidth("900px");
+        dialog.add(rejectedGrid);
+        dialog.getFooter().add(new Button("Закрыть", _ -> dialog.close()));
+        dialog.open();
+    }
+
+    // Перечитываются только затронутые счета; строки вне загруженных страниц грид пропустит
+    private void refreshAccounts(Long... accountIds) {
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            grid.setItems(accountService.getAllAccounts(session));
+            for (Long accountId : accountIds) {
+                Account account = accountService.findAccountById(session, accountId);
+                if (account != null) {
+                    grid.getLazyDataView().refreshItem(account);
+                }
+            }
         } catch (Exception e) {
-            throw new RuntimeException("Ошибка загрузки данных счетов", e);
+            logger.error("Ошибка обновления строк счетов", e);
+            updateGridData();
         }
     }
-}
\ No newline at end of file
+
+    private void updateGridData() {
+        lastWriteAt = System.currentTimeMillis();
+        accountPager.reset();
+        grid.getDataProvider().refreshAll();
+    }
+}
@@ -7,9 +7,13 @@ import com.vaadin.flow.component.grid.Grid;
 import com.vaadin.flow.component.html.Image;
 import com.vaadin.flow.component.icon.VaadinIcon;
 import com.vaadin.flow.component.notification.Notification;
+import com.vaadin.flow.component.orderedlayout.FlexComponent;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.textfield.TextField;
+import com.vaadin.flow.data.provider.ConfigurableFilterDataProvider;
 import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.value.ValueChangeMode;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.server.StreamResource;
@@ -17,26 +21,43 @@ import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.hd.gui.MainLayout;
+import ru.hd.gui.component.RowCounter;
+import ru.hd.gui.data.GridSort;
+import ru.hd.gui.data.KeysetPager;
 import ru.hd.gui.form.AccountForm;
 import ru.hd.gui.form.ClientForm;
 import ru.hd.jpa.Account;
 import ru.hd.jpa.Client;
-import ru.hd.jpa.PassportScan;
+import ru.hd.model.ClientSortField;
+import ru.hd.model.ScanRendition;
+import ru.hd.model.SortCriteria;
+import ru.hd.model.SortKey;
 import ru.hd.service.AccountService;
 import ru.hd.service.ClientService;
+import ru.hd.service.PassportScanService;
 import ru.hd.util.HibernateUtil;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.nio.file.Path;
 
 @PageTitle("Клиенты")
 @Route(value = "clients", layout = MainLayout.class)
 public class ClientsView extends VerticalLayout {
     private static final Logger logger = LoggerFactory.getLogger(ClientsView.class);
+    private static final SortCriteria<ClientSortField> DEFAULT_SORT = SortCriteria.ascending(ClientSortField.ID);
 
     private final ClientService clientService = new ClientService();
+    private final PassportScanService passportScanService = new PassportScanService();
+    private SortCriteria<ClientSortField> clientSort = DEFAULT_SORT;
+    // Время последней записи из этого экрана: после нее список перечитывается с основной БД
+    private volatile long lastWriteAt;
+    private final KeysetPager<Client, SortKey> clientPager = new KeysetPager<>(
+            client -> ClientService.sortKeyOf(client, clientSort.field()),
+            (session, after, skip, limit) -> clientService.getClientsAfter(session, clientSort, after, skip, limit));
+    private final RowCounter rowCounter = new RowCounter(clientService::estimateClientsCount, clientService::getTotalClientsCount);
     private final AccountService accountService = new AccountService();
     private final Grid<Client> grid = new Grid<>(Client.class, false);
+    private final TextField searchField = new TextField();
+    private ConfigurableFilterDataProvider<Client, Void, String> dataProvider;
 
     private final Dialog clientDialog = new Dialog();
     private final ClientForm clientForm = new ClientForm();
@@ -46,6 +67,7 @@ public class ClientsView extends VerticalLayout {
 
     public ClientsView() {
         configureGrid();
+        configureSearchField();
         configureClientDialog();
         configureAccountDialog();
 
@@ -53,13 +75,15 @@ public class ClientsView extends VerticalLayout {
         addButton.addThemeVariants(ButtonVariant.LUMO_PRIMARY);
         addButton.addClickListener(_ -> openClientForm(new Client()));
 
-        add(addButton, grid);
-        updateGridData();
+        HorizontalLayout toolbar = new HorizontalLayout(addButton, searchField, rowCounter);
+        toolbar.setAlignItems(FlexComponent.Alignment.CENTER);
+        add(toolbar, grid);
     }
 
     private void configureGrid() {
         grid.addColumn(Client::getFullName)
                 .setHeader("ФИО")
+                .setSortProperty(ClientSortField.FULL_NAME.name())
                 .setAutoWidth(false)
                 .setWidth("200px")
                 .setFlexGrow(2)
@@ -73,6 +97,7 @@ public class ClientsView extends VerticalLayout {
 
         grid.addColumn(Client::getInn)
                 .setHeader("ИНН")
+                .setSortProperty(ClientSortField.INN.name())
                 .setWidth("180px")
                 .setFlexGrow(0);
 
@@ -116,18 +141,49 @@ public class ClientsView extends VerticalLayout {
         grid.setPageSize(50);
 
 
-        grid.setDataProvider(DataProvider.fromCallbacks(
+        // Без фильтра грид листает таблицу по ключу в выбранной сортировке,
+        // с фильтром - ранжированную выдачу поиска, сортировка колонок к ней не применяется.
+        // Размер заранее не известен: грид подгружает страницы, пока они не закончатся,
+        // а полоса прокрутки строится по оценке планировщика
+        dataProvider = DataProvider.<Client, String>fromFilteringCallbacks(
                 query -> {
-                    try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                        return clientService.getClients(session, query.getOffset(), query.getLimit()).stream();
+                    SortCriteria<ClientSortField> sort = GridSort.toCriteria(query, ClientSortField.class, DEFAULT_SORT);
+                    if (!sort.equals(clientSort)) {
+                        clientSort = sort;
+                        clientPager.reset();
+                    }
+                    try (Session session = HibernateUtil.openReadOnlySession(lastWriteAt)) {
+                        return query.getFilter()
+                                .map(filter -> clientService.search(session, filter, query.getOffset(), query.getLimit()))
+                                .orElseGet(() -> clientPager.fetch(session, query.getOffset(), query.getLimit()))
+                                .stream();
                     }
                 },
-                _ -> {
-                    try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                        return clientService.getTotalClientsCount(session);
+                query -> {
+                    try (Session session = HibernateUtil.openReadOnlySession(lastWriteAt)) {
+                        return query.getFilter()
+                                .map(filter -> clientService.countSearchResults(session, filter))
+                                .orElseGet(() -> clientService.getTotalClientsCount(session));
                     }
-                }
-        ));
+                }).withConfigurableFilter();
+        grid.setItems(dataProvider);
+        grid.getLazyDataView().setItemCountEstimate(
+                (int) Math.min(Integer.MAX_VALUE, Math.max(rowCounter.refreshEstimate(), grid.getPageSize())));
+        grid.getLazyDataView().setIdentifierProvider(Client::getId);
+    }
+
+    private void configureSearchField() {
+        searchField.setPlaceholder("ФИО, телефон или ИНН");
+        searchField.setPrefixComponent(VaadinIcon.SEARCH.create());
+        searchField.setClearButtonVisible(true);
+        searchField.setWidth("320px");
+        // Запрос уходит после паузы в наборе, а не на каждый символ
+        searchField.setValueChangeMode(ValueChangeMode.LAZY);
+        searchField.setValueChangeTimeout(300);
+        searchField.addValueChangeListener(event -> {
+            String term = event.getValue().strip();
+            dataProvider.setFilter(term.length() >= ClientService.MIN_SEARCH_LENGTH ? term : null);
+        });
     }
 
     private void configureClientDialog() {
@@ -141,19 +197,20 @@ public class ClientsView extends VerticalLayout {
             }
 
             try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                InputStream fileData = clientForm.getMemoryBuffer().getInputStream();
-                byte[] fileBytes = fileData.available() > 0 ? fileData.readAllBytes() : null;
+                Path scanFile = clientForm.getUploadedScan();
 
                 if (clientForm.getClient().getId() == null) {
-                    clientService.createClient(session, clientForm.getClient(), fileBytes);
+                    clientService.createClient(session, clientForm.getClient(), scanFile);
                     Notification.show("Клиент успешно добавлен", 3000, Notification.Position.TOP_CENTER);
+                    updateGridData();
                 } else {
-                    clientService.updateClientWithPassportScan(session, clientForm.getClient(), fileBytes);
+                    Client updated = clientService.updateClientWithPassportScan(session, clientForm.getClient(), scanFile);
                     Notification.show("Изменения сохранены", 3000, Notification.Position.TOP_CENTER);
+                    grid.getLazyDataView().refreshItem(updated);
                 }
 
+                clientForm.discardUploadedScan();
                 clientDialog.close();
-                updateGridData();
             } catch (Exception e) {
                 logger.error("Ошибка сохранения клиента", e);
                 Notification.show("Ошибка: " + e.getMessage(), 10_000, Notification.Position.TOP_CENTER);
@@ -179,6 +236,9 @@ public class ClientsView extends VerticalLayout {
 
     private void openClientForm(Client client) {
         clientForm.setClient(client);
+        if (client.getPassportScan() != null) {
+            clientForm.showScanThumbnail(scanResource(client.getPassportScan().getId(), ScanRendition.THUMBNAIL));
+        }
         clientDialog.setHeaderTitle(client.getId() == null ? "Новый клиент" : "Редактирование");
         clientDialog.open();
     }
@@ -192,39 +252,54 @@ public class ClientsView extends VerticalLayout {
     }
 
     private void openPassportScanModal(Client client) {
-        PassportScan passportScan;
+        Long scanId;
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            passportScan = clientService.initializePassportScan(session, client);
+            scanId = clientService.getPassportScanId(session, client.getId());
         } catch (Exception e) {
             logger.error("Ошибка инициализации скана паспорта", e);
             Notification.show("Ошибка загрузки", 10_000, Notification.Position.TOP_CENTER);
             return;
         }
-        if (passportScan == null || passportScan.getScan() == null) {
+        if (scanId == null) {
             Notification.show("Скан паспорта не загружен");
             return;
         }
         Dialog modal = new Dialog();
         modal.setHeaderTitle("Скан паспорта");
 
-        byte[] scanBytes = passportScan.getScan();
-        StreamResource resource = new StreamResource("passport-scan.png", () -> new ByteArrayInputStream(scanBytes));
-        Image image = new Image(resource, "Скан паспорта");
+        // Сначала загружается уменьшенная копия, оригинал - только по кнопке
+        Image image = new Image(scanResource(scanId, ScanRendition.PREVIEW), "Скан паспорта");
         image.setWidth("100%");
         image.setHeight("auto");
 
         modal.add(image);
+        Button zoomButton = new Button("Оригинал", VaadinIcon.SEARCH_PLUS.create());
+        zoomButton.addClickListener(_ -> {
+            image.setSrc(scanResource(scanId, null));
+            zoomButton.setEnabled(false);
+        });
         Button closeButton = new Button("Закрыть", _ -> modal.close());
-        modal.getFooter().add(closeButton);
+        modal.getFooter().add(zoomButton, closeButton);
         modal.open();
     }
 
+    // rendition null - оригинал скана. Данные читаются при запросе картинки браузером прямо в ответ
+    private StreamResource scanResource(Long scanId, ScanRendition rendition) {
+        String fileName = rendition == null ? "passport-scan.png" : "passport-scan-" + rendition.getFileName();
+        return new StreamResource(fileName, (output, _) -> {
+            try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+                if (rendition == null) {
+                    passportScanService.copyTo(session, scanId, output);
+                } else {
+                    passportScanService.copyRenditionTo(session, scanId, rendition, output);
+                }
+            }
+        });
+    }
+
     private void updateGridData() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            grid.setItems(clientService.getAllClients(session));
-        } catch (Exception e) {
-            logger.error("Ошибка загрузки данных", e);
-            Notification.show("Ошибка загрузки", 10_000, Notification.Position.TOP_CENTER);
-        }
+        lastWriteAt = System.currentTimeMillis();
+        clientPager.reset();
+        grid.getDataProvider().refreshAll();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,150 @@
+package ru.hd.gui.view;
+
+import com.vaadin.flow.component.datepicker.DatePicker;
+import com.vaadin.flow.component.grid.Grid;
+import com.vaadin.flow.component.html.H3;
+import com.vaadin.flow.component.notification.Notification;
+import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.router.BeforeEvent;
+import com.vaadin.flow.router.HasUrlParameter;
+import com.vaadin.flow.router.PageTitle;
+import com.vaadin.flow.router.Route;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.gui.MainLayout;
+import ru.hd.gui.data.KeysetPager;
+import ru.hd.jpa.Account;
+import ru.hd.model.TransactionDto;
+import ru.hd.model.TransactionKey;
+import ru.hd.service.AccountService;
+import ru.hd.service.TransactionService;
+import ru.hd.util.HibernateUtil;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+@PageTitle("Выписка по счету")
+@Route(value = "statement", layout = MainLayout.class)
+public class StatementView extends VerticalLayout implements HasUrlParameter<Long> {
+    private static final Logger logger = LoggerFactory.getLogger(StatementView.class);
+
+    private final AccountService accountService = new AccountService();
+    private final TransactionService transactionService = new TransactionService();
+    private final KeysetPager<TransactionDto, TransactionKey> statementPager = new KeysetPager<>(
+            transaction -> new TransactionKey(transaction.createdAt(), transaction.id()),
+            this::loadStatementPage);
+
+    private final H3 title = new H3();
+    private final DatePicker fromDate = new DatePicker("С даты");
+    private final DatePicker toDate = new DatePicker("По дату");
+    private final Grid<TransactionDto> grid = new Grid<>(TransactionDto.class, false);
+
+    private Account account;
+
+    public StatementView() {
+        fromDate.setValue(LocalDate.now().minusMonths(1));
+        fromDate.addValueChangeListener(_ -> updateGridData());
+        toDate.addValueChangeListener(_ -> updateGridData());
+
+        configureGrid();
+        add(title, new HorizontalLayout(fromDate, toDate), grid);
+    }
+
+    @Override
+    public void setParameter(BeforeEvent event, Long accountId) {
+        try (Session session = HibernateUtil.openReadOnlySession()) {
+            account = accountService.findAccountById(session, accountId);
+        } catch (Exception e) {
+            logger.error("Ошибка загрузки счета ID {}", accountId, e);
+            Notification.show("Ошибка загрузки счета", 10_000, Notification.Position.TOP_CENTER);
+        }
+        if (account == null) {
+            title.setText("Счет не найден");
+            return;
+        }
+        title.setText("Выписка по счету " + account.getAccountNumber() + " (" + account.getClient().getFullName() + ")");
+        updateGridData();
+    }
+
+    private void configureGrid() {
+        grid.addColumn(transaction -> formatDateTime(transaction.createdAt()))
+                .setHeader("Дата")
+                .setWidth("200px")
+                .setFlexGrow(0);
+
+        grid.addColumn(transaction -> transaction.type().getDisplayName())
+                .setHeader("Тип")
+                .setWidth("135px")
+                .setFlexGrow(0);
+
+        grid.addColumn(this::formatSignedAmount)
+                .setHeader("Сумма")
+                .setWidth("150px")
+                .setFlexGrow(1);
+
+        grid.addColumn(this::getCounterpartAccountNumber)
+                .setHeader("Счет контрагента")
+                .setWidth("220px")
+                .setFlexGrow(0);
+
+        grid.addColumn(transaction -> transaction.status().getDisplayName())
+                .setHeader("Статус")
+                .setWidth("125px")
+                .setFlexGrow(0);
+
+        grid.setWidthFull();
+        grid.setHeight("calc(100vh - 240px)");
+        grid.setPageSize(50);
+        grid.setItems(query -> {
+            try (Session session = HibernateUtil.openReadOnlySession()) {
+                return statementPager.fetch(session, query.getOffset(), query.getLimit()).stream();
+            }
+        });
+    }
+
+    private List<TransactionDto> loadStatementPage(Session session, TransactionKey after, int skip, int limit) {
+        if (account == null) {
+            return List.of();
+        }
+        return transactionService.getStatementPage(session, account.getId(),
+                toStartOfDay(fromDate.getValue()), toStartOfDay(nextDay(toDate.getValue())), after, skip, limit);
+    }
+
+    private String formatSignedAmount(TransactionDto transaction) {
+        boolean debit = account.getAccountNumber().equals(transaction.fromAccountNumber());
+        return (debit ? "-" : "+") + transaction.amount();
+    }
+
+    private String getCounterpartAccountNumber(TransactionDto transaction) {
+        String counterpart = account.getAccountNumber().equals(transaction.fromAccountNumber())
+                ? transaction.toAccountNumber()
+                : transaction.fromAccountNumber();
+        return counterpart != null ? counterpart : "-";
+    }
+
+    private Instant toStartOfDay(LocalDate date) {
+        return date != null ? date.atStartOfDay(ZoneId.systemDefault()).toInstant() : null;
+    }
+
+    private LocalDate nextDay(LocalDate date) {
+        return date != null ? date.plusDays(1) : null;
+    }
+
+    private String formatDateTime(Instant instant) {
+        if (instant == null) {
+            return "-";
+        }
+        return instant.atZone(ZoneId.systemDefault())
+                .format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss"));
+    }
+
+    private void updateGridData() {
+        statementPager.reset();
+        grid.getDataProvider().refreshAll();
+    }
+}
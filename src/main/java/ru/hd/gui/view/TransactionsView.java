@@ -1,65 +1,118 @@
 package ru.hd.gui.view;
 
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.combobox.ComboBox;
+import com.vaadin.flow.component.datepicker.DatePicker;
 import com.vaadin.flow.component.grid.Grid;
+import com.vaadin.flow.component.html.Anchor;
+import com.vaadin.flow.component.icon.VaadinIcon;
+import com.vaadin.flow.component.orderedlayout.FlexComponent;
+import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.textfield.BigDecimalField;
+import com.vaadin.flow.component.textfield.TextField;
+import com.vaadin.flow.data.provider.ConfigurableFilterDataProvider;
 import com.vaadin.flow.data.provider.DataProvider;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
+import com.vaadin.flow.server.StreamResource;
 import org.hibernate.Session;
+import ru.hd.exception.AccountNotFoundException;
 import ru.hd.gui.MainLayout;
-import ru.hd.jpa.Account;
-import ru.hd.jpa.TransactionRecord;
+import ru.hd.gui.component.RowCounter;
+import ru.hd.gui.data.GridSort;
+import ru.hd.gui.data.KeysetPager;
+import ru.hd.model.SortCriteria;
+import ru.hd.model.SortKey;
+import ru.hd.model.TransactionDto;
+import ru.hd.model.TransactionFilter;
+import ru.hd.model.TransactionSortField;
+import ru.hd.model.TransactionStatus;
+import ru.hd.model.TransactionType;
+import ru.hd.service.AccountService;
+import ru.hd.service.TransactionExportService;
 import ru.hd.service.TransactionService;
 import ru.hd.util.HibernateUtil;
 
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 @PageTitle("Транзакции")
 @Route(value = "transactions", layout = MainLayout.class)
 public class TransactionsView extends VerticalLayout {
+    private static final SortCriteria<TransactionSortField> DEFAULT_SORT =
+            SortCriteria.ascending(TransactionSortField.CREATED_AT);
+
     private final TransactionService transactionService = new TransactionService();
-    private final Grid<TransactionRecord> grid = new Grid<>(TransactionRecord.class, false);
+    private final TransactionExportService exportService = new TransactionExportService();
+    private final AccountService accountService = new AccountService();
+    private SortCriteria<TransactionSortField> transactionSort = DEFAULT_SORT;
+    private TransactionFilter transactionFilter = TransactionFilter.empty();
+    private final KeysetPager<TransactionDto, SortKey> transactionPager = new KeysetPager<>(
+            transaction -> TransactionService.sortKeyOf(transaction, transactionSort.field()),
+            (session, after, skip, limit) -> transactionService.getTransactionsAfter(
+                    session, transactionFilter, transactionSort, after, skip, limit));
+    private final RowCounter rowCounter = new RowCounter(transactionService::estimateTransactionsCount, transactionService::getTotalTransactionsCount);
+    private final Grid<TransactionDto> grid = new Grid<>(TransactionDto.class, false);
+
+    private final DatePicker fromDate = new DatePicker();
+    private final DatePicker toDate = new DatePicker();
+    private final TextField accountNumberField = new TextField();
+    private final ComboBox<TransactionType> typeField = new ComboBox<>();
+    private final ComboBox<TransactionStatus> statusField = new ComboBox<>();
+    private final BigDecimalField minAmountField = new BigDecimalField();
+    private final BigDecimalField maxAmountField = new BigDecimalField();
+    private final Anchor exportLink = new Anchor();
+    private ConfigurableFilterDataProvider<TransactionDto, Void, TransactionFilter> dataProvider;
+
+    private Long filterAccountId;
 
     public TransactionsView() {
         configureGrid();
-        add(grid);
-        updateGridData();
+        configureFilters();
+
+        HorizontalLayout toolbar = new HorizontalLayout(fromDate, toDate, accountNumberField, typeField, statusField,
+                minAmountField, maxAmountField, exportLink, rowCounter);
+        toolbar.setAlignItems(FlexComponent.Alignment.CENTER);
+        add(toolbar, grid);
     }
 
     private void configureGrid() {
-        grid.addColumn(transaction -> transaction.getAmount().toString())
+        grid.addColumn(transaction -> transaction.amount().toString())
                 .setHeader("Сумма")
+                .setSortProperty(TransactionSortField.AMOUNT.name())
                 .setWidth("150px")
                 .setFlexGrow(1);
 
-        grid.addColumn(transaction -> transaction.getType().getDisplayName())
+        grid.addColumn(transaction -> transaction.type().getDisplayName())
                 .setHeader("Тип")
                 .setWidth("135px")
                 .setFlexGrow(0);
 
-        grid.addColumn(transaction -> transaction.getStatus().getDisplayName())
+        grid.addColumn(transaction -> transaction.status().getDisplayName())
                 .setHeader("Статус")
                 .setWidth("125px")
                 .setFlexGrow(0);
 
-        grid.addColumn(transaction -> getAccountNumber(transaction.getFromAccount()))
+        grid.addColumn(transaction -> formatAccountNumber(transaction.fromAccountNumber()))
                 .setHeader("Счет отправителя")
                 .setWidth("220px")
                 .setFlexGrow(0);
 
-        grid.addColumn(transaction -> getAccountNumber(transaction.getToAccount()))
+        grid.addColumn(transaction -> formatAccountNumber(transaction.toAccountNumber()))
                 .setHeader("Счет получателя")
                 .setWidth("220px")
                 .setFlexGrow(0);
 
-        grid.addColumn(transaction -> formatDateTime(transaction.getCreatedAt()))
+        grid.addColumn(transaction -> formatDateTime(transaction.createdAt()))
                 .setHeader("Дата создания")
+                .setSortProperty(TransactionSortField.CREATED_AT.name())
                 .setWidth("200px")
                 .setFlexGrow(0);
 
-        grid.addColumn(transaction -> formatDateTime(transaction.getUpdatedAt()))
+        grid.addColumn(transaction -> formatDateTime(transaction.updatedAt()))
                 .setHeader("Дата обновления")
                 .setWidth("200px")
                 .setFlexGrow(0);
@@ -68,28 +121,120 @@ public class TransactionsView extends VerticalLayout {
         grid.setHeight("calc(100vh - 115px)");
         grid.setPageSize(50);
 
-        grid.setDataProvider(DataProvider.fromCallbacks(
+        // Фильтр и сортировка уходят в запрос; при их смене запомненные ключи страниц сбрасываются.
+        // Размер заранее не известен: грид подгружает страницы, пока они не закончатся,
+        // а полоса прокрутки строится по оценке планировщика
+        dataProvider = DataProvider.<TransactionDto, TransactionFilter>fromFilteringCallbacks(
                 query -> {
-                    try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                        return transactionService.getTransactions(session, query.getOffset(), query.getLimit()).stream();
+                    TransactionFilter filter = query.getFilter().orElseGet(TransactionFilter::empty);
+                    SortCriteria<TransactionSortField> sort =
+                            GridSort.toCriteria(query, TransactionSortField.class, DEFAULT_SORT);
+                    if (!filter.equals(transactionFilter) || !sort.equals(transactionSort)) {
+                        transactionFilter = filter;
+                        transactionSort = sort;
+                        transactionPager.reset();
+                    }
+                    try (Session session = HibernateUtil.openReadOnlySession()) {
+                        return transactionPager.fetch(session, query.getOffset(), query.getLimit()).stream();
                     }
                 },
-                _ -> {
-                    try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                        return transactionService.getTotalTransactionsCount(session);
+                query -> {
+                    try (Session session = HibernateUtil.openReadOnlySession()) {
+                        return transactionService.countTransactions(session,
+                                query.getFilter().orElseGet(TransactionFilter::empty));
                     }
-                }
-        ));
+                }).withConfigurableFilter();
+        grid.setItems(dataProvider);
+        grid.getLazyDataView().setItemCountEstimate(
+                (int) Math.min(Integer.MAX_VALUE, Math.max(rowCounter.refreshEstimate(), grid.getPageSize())));
     }
 
-    private String getAccountNumber(Account account) {
-        if (account == null) {
-            return "-";
+    private void configureFilters() {
+        fromDate.setPlaceholder("С даты");
+        toDate.setPlaceholder("По дату");
+        accountNumberField.setPlaceholder("Номер счета");
+        accountNumberField.setClearButtonVisible(true);
+        accountNumberField.setWidth("240px");
+        typeField.setPlaceholder("Тип");
+        typeField.setItems(TransactionType.values());
+        typeField.setItemLabelGenerator(TransactionType::getDisplayName);
+        typeField.setClearButtonVisible(true);
+        statusField.setPlaceholder("Статус");
+        statusField.setItems(TransactionStatus.values());
+        statusField.setItemLabelGenerator(TransactionStatus::getDisplayName);
+        statusField.setClearButtonVisible(true);
+        minAmountField.setPlaceholder("Сумма от");
+        minAmountField.setClearButtonVisible(true);
+        maxAmountField.setPlaceholder("Сумма до");
+        maxAmountField.setClearButtonVisible(true);
+
+        fromDate.addValueChangeListener(_ -> applyFilter());
+        toDate.addValueChangeListener(_ -> applyFilter());
+        typeField.addValueChangeListener(_ -> applyFilter());
+        statusField.addValueChangeListener(_ -> applyFilter());
+        minAmountField.addValueChangeListener(_ -> applyFilter());
+        maxAmountField.addValueChangeListener(_ -> applyFilter());
+        accountNumberField.addValueChangeListener(event -> {
+            filterAccountId = resolveAccountId(event.getValue());
+            applyFilter();
+        });
+
+        exportLink.getElement().setAttribute("download", true);
+        exportLink.add(new Button("Выгрузить CSV", VaadinIcon.DOWNLOAD.create()));
+        applyFilter();
+    }
+
+    private Long resolveAccountId(String accountNumber) {
+        accountNumberField.setInvalid(false);
+        if (accountNumber == null || accountNumber.isBlank()) {
+            return null;
         }
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            Account managedAccount = session.get(Account.class, account.getId());
-            return managedAccount != null ? managedAccount.getAccountNumber() : "-";
+            return accountService.resolveAccountId(session, accountNumber.strip());
+        } catch (AccountNotFoundException e) {
+            accountNumberField.setErrorMessage("Счет не найден");
+            accountNumberField.setInvalid(true);
+            return null;
+        }
+    }
+
+    // Фильтр фиксируется при изменении полей: выгрузка выполняется вне потока интерфейса.
+    // Пока номер счета не найден, грид и выгрузка остаются с прежним фильтром
+    private void applyFilter() {
+        boolean valid = !accountNumberField.isInvalid();
+        exportLink.setEnabled(valid);
+        if (!valid) {
+            return;
         }
+        TransactionFilter filter = new TransactionFilter(
+                toStartOfDay(fromDate.getValue()),
+                toStartOfDay(nextDay(toDate.getValue())),
+                filterAccountId,
+                typeField.getValue(),
+                statusField.getValue(),
+                minAmountField.getValue(),
+                maxAmountField.getValue());
+        dataProvider.setFilter(filter);
+
+        StreamResource resource = new StreamResource("transactions.csv", (output, _) -> {
+            try (Session session = HibernateUtil.openReadOnlySession()) {
+                exportService.exportCsv(session, filter, output);
+            }
+        });
+        resource.setContentType("text/csv; charset=UTF-8");
+        exportLink.setHref(resource);
+    }
+
+    private Instant toStartOfDay(LocalDate date) {
+        return date != null ? date.atStartOfDay(ZoneId.systemDefault()).toInstant() : null;
+    }
+
+    private LocalDate nextDay(LocalDate date) {
+        return date != null ? date.plusDays(1) : null;
+    }
+
+    private String formatAccountNumber(String accountNumber) {
+        return accountNumber != null ? accountNumber : "-";
     }
 
     private String formatDateTime(Instant instant) {
@@ -99,12 +244,4 @@ public class TransactionsView extends VerticalLayout {
         return instant.atZone(ZoneId.systemDefault())
                 .format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss"));
     }
-
-    private void updateGridData() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            grid.setItems(transactionService.getAllTransactions(session));
-        } catch (Exception e) {
-            throw new RuntimeException("Ошибка загрузки данных транзакций", e);
-        }
-    }
-}
\ No newline at end of file
+}
@@ -2,6 +2,10 @@ package ru.hd.jpa;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import ru.hd.model.Currency;
 import ru.hd.model.AccountStatus;
 
@@ -9,15 +13,19 @@ import java.math.BigDecimal;
 
 @Entity
 @Table(name = "accounts")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "account")
+@NaturalIdCache(region = "account-natural-id")
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 public class Account {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "accounts_seq")
+    @SequenceGenerator(name = "accounts_seq", sequenceName = "accounts_seq", allocationSize = 50)
     private Long id;
 
+    @NaturalId(mutable = true)
     @Column(name = "account_number", unique = true, nullable = false)
     private String accountNumber;
 
@@ -37,6 +45,10 @@ public class Account {
     @Column(nullable = false)
     private Currency currency;
 
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "client_id", nullable = false)
     @ToString.Exclude
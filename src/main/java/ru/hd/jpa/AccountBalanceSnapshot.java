@@ -0,0 +1,38 @@
+package ru.hd.jpa;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Остаток счета на конец дня; строки пишет BalanceSnapshotService пакетно через SQL
+@Entity
+@Table(name = "account_balance_snapshots")
+@IdClass(AccountBalanceSnapshot.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountBalanceSnapshot {
+    @Id
+    @Column(name = "account_id")
+    private Long accountId;
+
+    @Id
+    @Column(name = "snapshot_date")
+    private LocalDate snapshotDate;
+
+    @Column(nullable = false, precision = 15, scale = 2)
+    private BigDecimal balance;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long accountId;
+        private LocalDate snapshotDate;
+    }
+}
@@ -2,19 +2,24 @@ package ru.hd.jpa;
 
 import lombok.*;
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
 @Table(name = "clients")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "client")
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 public class Client {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "clients_seq")
+    @SequenceGenerator(name = "clients_seq", sequenceName = "clients_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "full_name", nullable = false)
@@ -31,10 +36,13 @@ public class Client {
 
     @OneToOne(cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @JoinColumn(name = "passport_scan_id")
+    @ToString.Exclude
     @EqualsAndHashCode.Exclude
     private PassportScan passportScan;
 
+    // Счета нескольких клиентов страницы догружаются одним запросом, а не по запросу на клиента
     @OneToMany(mappedBy = "client", cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = 50)
     @Builder.Default
     @ToString.Exclude
     @EqualsAndHashCode.Exclude
@@ -3,7 +3,9 @@ package ru.hd.jpa;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.type.SqlTypes;
 
@@ -18,11 +20,25 @@ public class PassportScan {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // Пусто, если содержимое в файловом хранилище. Загружается только при обращении к полю
     @Lob
-    @Column(columnDefinition = "BYTEA", nullable = false)
+    @Basic(fetch = FetchType.LAZY)
+    @Column(columnDefinition = "BYTEA")
     @JdbcTypeCode(SqlTypes.BINARY)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private byte[] scan;
 
-    @OneToOne(mappedBy = "passportScan")
+    // SHA-256 содержимого в файловом хранилище
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "size_bytes")
+    private Long sizeBytes;
+
+    // Обратная сторона без внешнего ключа: без усиления байткода Hibernate загрузил бы клиента сразу
+    @OneToOne(mappedBy = "passportScan", fetch = FetchType.LAZY)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private Client client;
 }
\ No newline at end of file
@@ -17,8 +17,11 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 public class TransactionRecord {
+    // Первичный ключ секционированной таблицы - (id, created_at); уникальность одного id обеспечивает
+    // только transactions_seq, поэтому id задается лишь из нее (см. 171026-12-transactions-default-partition)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transactions_seq")
+    @SequenceGenerator(name = "transactions_seq", sequenceName = "transactions_seq", allocationSize = 500)
     private Long id;
 
     @Column(nullable = false, precision = 15, scale = 2)
@@ -0,0 +1,5 @@
+package ru.hd.model;
+
+public enum ClientSortField {
+    ID, FULL_NAME, INN
+}
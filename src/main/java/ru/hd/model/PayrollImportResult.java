@@ -0,0 +1,15 @@
+package ru.hd.model;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+public record PayrollImportResult(long linesRead,
+                                  long credited,
+                                  BigDecimal totalAmount,
+                                  long rejectedCount,
+                                  List<RejectedLine> rejectedLines) {
+
+    public boolean hasRejections() {
+        return rejectedCount > 0;
+    }
+}
@@ -0,0 +1,4 @@
+package ru.hd.model;
+
+public record RejectedLine(long lineNumber, String content, String reason) {
+}
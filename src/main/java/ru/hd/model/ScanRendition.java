@@ -0,0 +1,18 @@
+package ru.hd.model;
+
+import lombok.Getter;
+
+// Уменьшенные копии скана паспорта: наибольшая сторона в пикселях и имя файла рядом со сканом
+@Getter
+public enum ScanRendition {
+    THUMBNAIL(240, "thumbnail.jpg"),
+    PREVIEW(1024, "preview.jpg");
+
+    private final int maxSide;
+    private final String fileName;
+
+    ScanRendition(int maxSide, String fileName) {
+        this.maxSide = maxSide;
+        this.fileName = fileName;
+    }
+}
@@ -0,0 +1,5 @@
+package ru.hd.model;
+
+public enum ScanStorageType {
+    DATABASE, FILESYSTEM
+}
@@ -0,0 +1,9 @@
+package ru.hd.model;
+
+// Сортировка по одному из разрешенных полей; при равенстве значений строки упорядочиваются по id в том же направлении
+public record SortCriteria<F extends Enum<F>>(F field, boolean descending) {
+
+    public static <F extends Enum<F>> SortCriteria<F> ascending(F field) {
+        return new SortCriteria<>(field, false);
+    }
+}
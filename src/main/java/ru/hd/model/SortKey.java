@@ -0,0 +1,5 @@
+package ru.hd.model;
+
+// Позиция строки в отсортированной выборке: значение поля сортировки и id
+public record SortKey(Object value, Long id) {
+}
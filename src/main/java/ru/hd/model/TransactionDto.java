@@ -0,0 +1,14 @@
+package ru.hd.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+public record TransactionDto(Long id,
+                             BigDecimal amount,
+                             TransactionType type,
+                             TransactionStatus status,
+                             String fromAccountNumber,
+                             String toAccountNumber,
+                             Instant createdAt,
+                             Instant updatedAt) {
+}
@@ -0,0 +1,18 @@
+package ru.hd.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+// Пустое поле - условие не применяется; период полуоткрытый: [from, to), границы суммы включаются
+public record TransactionFilter(Instant from,
+                                Instant to,
+                                Long accountId,
+                                TransactionType type,
+                                TransactionStatus status,
+                                BigDecimal minAmount,
+                                BigDecimal maxAmount) {
+
+    public static TransactionFilter empty() {
+        return new TransactionFilter(null, null, null, null, null, null, null);
+    }
+}
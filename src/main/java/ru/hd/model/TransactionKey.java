@@ -0,0 +1,6 @@
+package ru.hd.model;
+
+import java.time.Instant;
+
+public record TransactionKey(Instant createdAt, Long id) {
+}
@@ -0,0 +1,5 @@
+package ru.hd.model;
+
+public enum TransactionSortField {
+    CREATED_AT, AMOUNT
+}
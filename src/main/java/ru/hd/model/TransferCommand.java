@@ -0,0 +1,6 @@
+package ru.hd.model;
+
+import java.math.BigDecimal;
+
+public record TransferCommand(Long fromAccountId, Long toAccountId, BigDecimal amount) {
+}
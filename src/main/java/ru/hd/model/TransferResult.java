@@ -0,0 +1,23 @@
+package ru.hd.model;
+
+public record TransferResult(TransferCommand command,
+                             TransactionStatus status,
+                             Long transactionId,
+                             String errorMessage) {
+
+    public static TransferResult completed(TransferCommand command, Long transactionId) {
+        return new TransferResult(command, TransactionStatus.COMPLETED, transactionId, null);
+    }
+
+    public static TransferResult failed(TransferCommand command, String errorMessage) {
+        return failed(command, null, errorMessage);
+    }
+
+    public static TransferResult failed(TransferCommand command, Long transactionId, String errorMessage) {
+        return new TransferResult(command, TransactionStatus.FAILED, transactionId, errorMessage);
+    }
+
+    public boolean isCompleted() {
+        return status == TransactionStatus.COMPLETED;
+    }
+}
@@ -0,0 +1,233 @@
+package ru.hd.service;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.model.AccountStatus;
+import ru.hd.model.Currency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static ru.hd.util.ValidationPattern.ACCOUNT_NUMBER;
+
+// Номер счета -> id, статус и валюта в памяти процесса. 20-значный номер не помещается в long,
+// поэтому хранится как две старшие цифры (byte) и 18 младших (long) в параллельных массивах
+// хэш-таблицы с открытой адресацией: без String и объектов-оберток на каждый счет
+public class AccountNumberIndex {
+    private static final Logger logger = LoggerFactory.getLogger(AccountNumberIndex.class);
+
+    private static final Map<SessionFactory, AccountNumberIndex> instances = new ConcurrentHashMap<>();
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int LOAD_FETCH_SIZE = 10_000;
+    private static final byte EMPTY = 0;
+
+    public record Entry(long accountId, AccountStatus status, Currency currency) {
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Старшие цифры хранятся со сдвигом на 1, чтобы 0 обозначал пустую ячейку
+    private byte[] highDigits;
+    private long[] lowDigits;
+    private long[] accountIds;
+    private byte[] attributes;
+    private int size;
+
+    AccountNumberIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    // Один индекс на фабрику сессий; заполняется из БД при первом обращении
+    public static AccountNumberIndex forSessionFactory(SessionFactory sessionFactory) {
+        return instances.computeIfAbsent(sessionFactory, factory -> {
+            AccountNumberIndex index = new AccountNumberIndex();
+            index.load(factory);
+            return index;
+        });
+    }
+
+    public Entry get(String accountNumber) {
+        if (!isValidNumber(accountNumber)) {
+            return null;
+        }
+        byte high = highDigitsOf(accountNumber);
+        long low = lowDigitsOf(accountNumber);
+
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(high, low);
+            if (highDigits[slot] == EMPTY) {
+                return null;
+            }
+            return new Entry(accountIds[slot], statusOf(attributes[slot]), currencyOf(attributes[slot]));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String accountNumber) {
+        return get(accountNumber) != null;
+    }
+
+    public void put(String accountNumber, long accountId, AccountStatus status, Currency currency) {
+        if (!isValidNumber(accountNumber)) {
+            throw new IllegalArgumentException("Неверный номер счета: " + accountNumber);
+        }
+        byte high = highDigitsOf(accountNumber);
+        long low = lowDigitsOf(accountNumber);
+
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(high, low);
+            if (highDigits[slot] == EMPTY) {
+                if ((size + 1) * 2 > highDigits.length) {
+                    resize(highDigits.length * 2);
+                    slot = findSlot(high, low);
+                }
+                highDigits[slot] = high;
+                lowDigits[slot] = low;
+                size++;
+            }
+            accountIds[slot] = accountId;
+            attributes[slot] = packAttributes(status, currency);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String accountNumber) {
+        if (!isValidNumber(accountNumber)) {
+            return;
+        }
+        byte high = highDigitsOf(accountNumber);
+        long low = lowDigitsOf(accountNumber);
+
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(high, low);
+            if (highDigits[slot] != EMPTY) {
+                deleteSlot(slot);
+                size--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void load(SessionFactory sessionFactory) {
+        long startedAt = System.nanoTime();
+        try (StatelessSession session = sessionFactory.openStatelessSession();
+             ScrollableResults<Object[]> rows = session.createQuery(
+                             "SELECT a.accountNumber, a.id, a.status, a.currency FROM Account a", Object[].class)
+                     .setFetchSize(LOAD_FETCH_SIZE)
+                     .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (rows.next()) {
+                Object[] row = rows.get();
+                put((String) row[0], (Long) row[1], (AccountStatus) row[2], (Currency) row[3]);
+            }
+        }
+        logger.info("Индекс номеров счетов загружен: счетов={}, за {} мс",
+                size(), (System.nanoTime() - startedAt) / 1_000_000);
+    }
+
+    // Линейное пробирование: ячейка с этим номером либо первая пустая ячейка цепочки
+    private int findSlot(byte high, long low) {
+        int mask = highDigits.length - 1;
+        int slot = hash(high, low) & mask;
+        while (highDigits[slot] != EMPTY && (highDigits[slot] != high || lowDigits[slot] != low)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Удаление со сдвигом назад: следующие элементы цепочки переносятся в освободившуюся ячейку,
+    // так что поиск не натыкается на дыру и метки удаления не нужны
+    private void deleteSlot(int slot) {
+        int mask = highDigits.length - 1;
+        int free = slot;
+        int next = (slot + 1) & mask;
+        while (highDigits[next] != EMPTY) {
+            int home = hash(highDigits[next], lowDigits[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                highDigits[free] = highDigits[next];
+                lowDigits[free] = lowDigits[next];
+                accountIds[free] = accountIds[next];
+                attributes[free] = attributes[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        highDigits[free] = EMPTY;
+    }
+
+    private void resize(int capacity) {
+        byte[] oldHighDigits = highDigits;
+        long[] oldLowDigits = lowDigits;
+        long[] oldAccountIds = accountIds;
+        byte[] oldAttributes = attributes;
+        allocate(capacity);
+        for (int i = 0; i < oldHighDigits.length; i++) {
+            if (oldHighDigits[i] != EMPTY) {
+                int slot = findSlot(oldHighDigits[i], oldLowDigits[i]);
+                highDigits[slot] = oldHighDigits[i];
+                lowDigits[slot] = oldLowDigits[i];
+                accountIds[slot] = oldAccountIds[i];
+                attributes[slot] = oldAttributes[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        highDigits = new byte[capacity];
+        lowDigits = new long[capacity];
+        accountIds = new long[capacity];
+        attributes = new byte[capacity];
+    }
+
+    private static int hash(byte high, long low) {
+        long h = low * 0x9E3779B97F4A7C15L + high;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static boolean isValidNumber(String accountNumber) {
+        return accountNumber != null && ACCOUNT_NUMBER.matcher(accountNumber).matches();
+    }
+
+    private static byte highDigitsOf(String accountNumber) {
+        return (byte) (Integer.parseInt(accountNumber, 0, 2, 10) + 1);
+    }
+
+    private static long lowDigitsOf(String accountNumber) {
+        return Long.parseLong(accountNumber, 2, 20, 10);
+    }
+
+    private static byte packAttributes(AccountStatus status, Currency currency) {
+        return (byte) (status.ordinal() << 4 | currency.ordinal());
+    }
+
+    private static AccountStatus statusOf(byte packed) {
+        return AccountStatus.values()[packed >>> 4];
+    }
+
+    private static Currency currencyOf(byte packed) {
+        return Currency.values()[packed & 0x0F];
+    }
+}
@@ -1,15 +1,23 @@
 package ru.hd.service;
 
+import org.hibernate.LockMode;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.query.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.hd.exception.*;
 import ru.hd.jpa.Account;
+import ru.hd.model.AccountSortField;
 import ru.hd.model.AccountStatus;
+import ru.hd.model.SortCriteria;
+import ru.hd.model.SortKey;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 
 import static ru.hd.util.ValidationPattern.ACCOUNT_NUMBER;
 import static ru.hd.util.ValidationPattern.BIK;
@@ -22,15 +30,17 @@ public class AccountService extends SessionService {
         validateSession(session);
 
         Transaction transaction = null;
+        Account newAccount = null;
         try {
             validateBik(account.getBik());
             validateAccountNumber(account.getAccountNumber());
             checkAccountNumberUniqueness(session, account.getAccountNumber());
 
             transaction = session.beginTransaction();
-            Account newAccount = buildNewAccount(account);
+            newAccount = buildNewAccount(account);
             session.persist(newAccount);
             transaction.commit();
+            indexAccount(session, newAccount);
 
             logger.info("Счет успешно создан: accountNumber={}, clientId={}",
                     account.getAccountNumber(), account.getClient().getId());
@@ -39,6 +49,14 @@ public class AccountService extends SessionService {
             rollbackSafely(transaction);
             logError("Ошибка при создании счета", account, e);
             throw e;
+        } catch (RuntimeException e) {
+            rollbackSafely(transaction);
+            detachSafely(session, newAccount);
+            logError("Ошибка при создании счета", account, e);
+            if (isAccountNumberViolation(e)) {
+                throw new DuplicateAccountException(account.getAccountNumber());
+            }
+            throw e;
         }
     }
 
@@ -47,13 +65,19 @@ public class AccountService extends SessionService {
         validateSession(session);
 
         Transaction transaction = null;
+        Account existingAccount = null;
         try {
-            Account existingAccount = getExistingAccount(session, updatedAccount.getId());
+            existingAccount = getExistingAccount(session, updatedAccount.getId());
+            String previousNumber = existingAccount.getAccountNumber();
             validateAndUpdateFields(session, existingAccount, updatedAccount);
 
             transaction = session.beginTransaction();
             session.merge(existingAccount);
             transaction.commit();
+            if (!previousNumber.equals(existingAccount.getAccountNumber())) {
+                accountNumberIndex(session).remove(previousNumber);
+            }
+            indexAccount(session, existingAccount);
 
             logger.info("Счет успешно обновлен: ID={}, accountNumber={}",
                     existingAccount.getId(), existingAccount.getAccountNumber());
@@ -62,6 +86,14 @@ public class AccountService extends SessionService {
             rollbackSafely(transaction);
             logError("Ошибка при обновлении счета", updatedAccount, e);
             throw e;
+        } catch (RuntimeException e) {
+            rollbackSafely(transaction);
+            detachSafely(session, existingAccount);
+            logError("Ошибка при обновлении счета", updatedAccount, e);
+            if (isAccountNumberViolation(e)) {
+                throw new DuplicateAccountException(updatedAccount.getAccountNumber());
+            }
+            throw e;
         }
     }
 
@@ -70,7 +102,7 @@ public class AccountService extends SessionService {
 
         Transaction transaction = null;
         try {
-            Account managedAccount = session.get(Account.class, account.getId());
+            Account managedAccount = getAccountBypassingCache(session, account.getId(), LockMode.READ);
 
             if (!managedAccount.getStatus().equals(AccountStatus.OPEN)) {
                 throw new InvalidAccountStatusException("Счет уже закрыт");
@@ -84,6 +116,7 @@ public class AccountService extends SessionService {
             managedAccount.setStatus(AccountStatus.CLOSED);
             session.merge(managedAccount);
             transaction.commit();
+            indexAccount(session, managedAccount);
 
             logger.info("Счет {} закрыт", managedAccount.getAccountNumber());
         } catch (Exception e) {
@@ -97,10 +130,8 @@ public class AccountService extends SessionService {
             throws AccountNotFoundException {
         validateSession(session);
 
-        Account account = session.createQuery(
-                        "FROM Account WHERE accountNumber = :number", Account.class)
-                .setParameter("number", accountNumber)
-                .uniqueResult();
+        // Номер счета - натуральный ключ: id берется из кэша natural-id, сам счет - из кэша сущностей
+        Account account = session.bySimpleNaturalId(Account.class).load(accountNumber);
 
         if (account == null) {
             throw new AccountNotFoundException(accountNumber);
@@ -109,10 +140,31 @@ public class AccountService extends SessionService {
         return account;
     }
 
+    // Получатель перевода определяется по индексу в памяти без обращения к БД
+    public Long resolveAccountId(Session session, String accountNumber) throws AccountNotFoundException {
+        validateSession(session);
+        AccountNumberIndex.Entry entry = accountNumberIndex(session).get(accountNumber);
+        if (entry != null) {
+            return entry.accountId();
+        }
+        // Счет мог быть создан в обход индекса - тогда он добавляется при первом обращении
+        Account account = findAccountByNumber(session, accountNumber);
+        indexAccount(session, account);
+        return account.getId();
+    }
+
+    public Account findAccountById(Session session, Long accountId) {
+        validateSession(session);
+        return session.createQuery(
+                        "SELECT a FROM Account a JOIN FETCH a.client WHERE a.id = :id", Account.class)
+                .setParameter("id", accountId)
+                .uniqueResult();
+    }
+
     public List<Account> getAccounts(Session session, int offset, int limit) {
         validateSession(session);
             return session.createQuery(
-                            "SELECT a FROM Account a JOIN FETCH a.client", Account.class)
+                            "SELECT a FROM Account a JOIN FETCH a.client ORDER BY a.id", Account.class)
                     .setFirstResult(offset)
                     .setMaxResults(limit)
                     .getResultList();
@@ -121,10 +173,46 @@ public class AccountService extends SessionService {
     public List<Account> getAllAccounts(Session session) {
         validateSession(session);
             return session.createQuery(
-                            "SELECT a FROM Account a JOIN FETCH a.client", Account.class)
+                            "SELECT a FROM Account a JOIN FETCH a.client ORDER BY a.id", Account.class)
                     .getResultList();
     }
 
+    public List<Account> getAccountsAfter(Session session, Long afterId, int skip, int limit) {
+        return getAccountsAfter(session, SortCriteria.ascending(AccountSortField.ID),
+                afterId != null ? new SortKey(afterId, afterId) : null, skip, limit);
+    }
+
+    public List<Account> getAccountsAfter(Session session, SortCriteria<AccountSortField> sort, SortKey after,
+                                          int skip, int limit) {
+        validateSession(session);
+        String sortPath = sortPath(sort.field());
+        String where = after != null ? "WHERE " + keysetCondition(sortPath, "a.id", sort.descending()) + " " : "";
+        Query<Account> query = session.createQuery(
+                "SELECT a FROM Account a JOIN FETCH a.client " + where
+                        + keysetOrderBy(sortPath, "a.id", sort.descending()), Account.class);
+        if (after != null) {
+            bindKeyset(query, sortPath, "a.id", after);
+        }
+        return query.setFirstResult(skip)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    public static SortKey sortKeyOf(Account account, AccountSortField field) {
+        Object value = switch (field) {
+            case ID -> account.getId();
+            case ACCOUNT_NUMBER -> account.getAccountNumber();
+        };
+        return new SortKey(value, account.getId());
+    }
+
+    private static String sortPath(AccountSortField field) {
+        return switch (field) {
+            case ID -> "a.id";
+            case ACCOUNT_NUMBER -> "a.accountNumber";
+        };
+    }
+
     public int getTotalAccountsCount(Session session) {
         validateSession(session);
             return session.createQuery("SELECT COUNT(a) FROM Account a", Long.class)
@@ -132,10 +220,17 @@ public class AccountService extends SessionService {
                     .intValue();
     }
 
+    public long estimateAccountsCount(Session session) {
+        validateSession(session);
+        return estimateRowCount(session, "accounts");
+    }
+
+    // Уникальность проверяется по индексу в памяти; номер, занятый другим экземпляром приложения
+    // или параллельной вставкой, отклоняет ограничение в БД (см. isAccountNumberViolation)
     private void checkAccountNumberUniqueness(Session session, String accountNumber)
             throws DuplicateAccountException {
         validateSession(session);
-        if (isAccountNumberExists(session, accountNumber)) {
+        if (accountNumberIndex(session).contains(accountNumber)) {
             throw new DuplicateAccountException(accountNumber);
         }
     }
@@ -153,7 +248,7 @@ public class AccountService extends SessionService {
 
     private Account getExistingAccount(Session session, Long accountId)
             throws AccountNotFoundException {
-        Account existingAccount = session.get(Account.class, accountId);
+        Account existingAccount = getAccountBypassingCache(session, accountId, LockMode.READ);
         if (existingAccount == null) {
             throw new AccountNotFoundException(accountId);
         }
@@ -187,24 +282,38 @@ public class AccountService extends SessionService {
 
     private void checkAccountNumberUniqueness(Session session, String accountNumber, Long currentId)
             throws DuplicateAccountException {
-        if (isAccountNumberExistsExcludingCurrent(session, accountNumber, currentId)) {
+        AccountNumberIndex.Entry entry = accountNumberIndex(session).get(accountNumber);
+        if (entry != null && !Objects.equals(entry.accountId(), currentId)) {
             throw new DuplicateAccountException(accountNumber);
         }
     }
 
-    private boolean isAccountNumberExists(Session session, String accountNumber) {
-        return session.createQuery(
-                        "SELECT COUNT(a.id) FROM Account a WHERE a.accountNumber = :number", Long.class)
-                .setParameter("number", accountNumber)
-                .uniqueResult() > 0;
+    // Нарушение уникальности приходит при коммите - напрямую или обернутым в RollbackException
+    private static boolean isAccountNumberViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException violation) {
+                String details = violation.getConstraintName() + " " + violation.getMessage();
+                return details.toLowerCase(Locale.ROOT).contains("account_number");
+            }
+        }
+        return false;
     }
 
-    private boolean isAccountNumberExistsExcludingCurrent(Session session, String accountNumber, Long currentId) {
-        return session.createQuery(
-                        "SELECT COUNT(a.id) FROM Account a WHERE a.accountNumber = :number AND a.id != :id", Long.class)
-                .setParameter("number", accountNumber)
-                .setParameter("id", currentId)
-                .uniqueResult() > 0;
+    // После неудачного flush сущность остается в сессии и снова попала бы в следующий коммит
+    private void detachSafely(Session session, Account account) {
+        if (account != null && session.contains(account)) {
+            session.detach(account);
+        }
+    }
+
+    private AccountNumberIndex accountNumberIndex(Session session) {
+        return AccountNumberIndex.forSessionFactory(session.getSessionFactory());
+    }
+
+    // Индекс обновляется только после успешного коммита
+    private void indexAccount(Session session, Account account) {
+        accountNumberIndex(session).put(account.getAccountNumber(), account.getId(),
+                account.getStatus(), account.getCurrency());
     }
 
     private void validateAccountNumber(String accountNumber)
@@ -221,17 +330,6 @@ public class AccountService extends SessionService {
         }
     }
 
-    private void rollbackSafely(Transaction transaction) {
-        if (transaction != null && transaction.isActive()) {
-            try {
-                transaction.rollback();
-                logger.info("Транзакция успешно откачена");
-            } catch (Exception ex) {
-                logger.error("Ошибка при откате транзакции", ex);
-            }
-        }
-    }
-
     private void logError(String message, Account account, Exception e) {
         logger.error("{}: accountNumber={}, clientId={}",
                 message, account.getAccountNumber(), account.getClient().getId(), e);
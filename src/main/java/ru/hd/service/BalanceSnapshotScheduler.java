@@ -0,0 +1,108 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.util.AppProperties;
+import ru.hd.util.ScheduledJob;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Ежедневные снимки остатков. Каждый запуск проходит последние дни и доделывает незавершенные части,
+// так что пропущенный или прерванный день догоняется следующим запуском
+public class BalanceSnapshotScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(BalanceSnapshotScheduler.class);
+
+    private final BalanceSnapshotService snapshotService = new BalanceSnapshotService();
+    private final SessionFactory sessionFactory;
+    private final int chunkSize = AppProperties.getInt("balance-snapshots.chunk-size", 10_000);
+    private final int parallelism = AppProperties.getInt("balance-snapshots.parallelism", 4);
+    private final int catchUpDays = AppProperties.getInt("balance-snapshots.catch-up-days", 7);
+    private final long intervalHours = AppProperties.getLong("balance-snapshots.check-interval-hours", 6);
+
+    public BalanceSnapshotScheduler(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public void start() {
+        ScheduledJob.withFixedDelay("balance-snapshots", 0, intervalHours, TimeUnit.HOURS, this::runScheduled);
+        logger.info("Снимки остатков запущены: дней назад {}, частей параллельно {}, счетов в части {}",
+                catchUpDays, parallelism, chunkSize);
+    }
+
+    private void runScheduled() {
+        LocalDate yesterday = LocalDate.now(BalanceSnapshotService.SNAPSHOT_ZONE).minusDays(1);
+        for (LocalDate day = yesterday.minusDays(catchUpDays - 1L); !day.isAfter(yesterday); day = day.plusDays(1)) {
+            try {
+                takeSnapshot(day);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Ошибка одного дня не должна отменить остальные
+                logger.error("Ошибка снимка остатков за {}", day, e);
+            }
+        }
+    }
+
+    // Возвращает число необработанных частей: 0 - снимок за день полный
+    public long takeSnapshot(LocalDate day) throws BankingOperationException, InterruptedException {
+        try (Session session = sessionFactory.openSession()) {
+            snapshotService.registerChunks(session, day, chunkSize);
+            long pending = snapshotService.countPendingChunks(session, day);
+            if (pending == 0) {
+                return 0;
+            }
+            if (!snapshotService.isDaySettled(session, day)) {
+                // Части остаются незавершенными и берутся следующим запуском
+                logger.info("Снимок остатков за {} отложен: день не закрыт, есть непроведенные переводы за него", day);
+                return pending;
+            }
+        }
+
+        long startedAt = System.nanoTime();
+        List<Future<Integer>> workers = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(pool.submit(() -> processChunks(day)));
+            }
+        }
+
+        int processed = 0;
+        for (Future<Integer> worker : workers) {
+            try {
+                processed += worker.get();
+            } catch (ExecutionException e) {
+                // Часть, на которой упал обработчик, осталась незавершенной и будет взята при следующем запуске
+                logger.error("Ошибка обработчика снимка остатков за {}", day, e.getCause());
+            }
+        }
+
+        long pending;
+        try (Session session = sessionFactory.openSession()) {
+            pending = snapshotService.countPendingChunks(session, day);
+        }
+        logger.info("Снимок остатков за {}: обработано частей {}, осталось {}, за {} мс",
+                day, processed, pending, (System.nanoTime() - startedAt) / 1_000_000);
+        return pending;
+    }
+
+    private int processChunks(LocalDate day) throws BankingOperationException {
+        int processed = 0;
+        try (Session session = sessionFactory.openSession()) {
+            while (!Thread.currentThread().isInterrupted() && snapshotService.processNextChunk(session, day)) {
+                processed++;
+            }
+        }
+        return processed;
+    }
+}
@@ -0,0 +1,239 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.exception.AccountNotFoundException;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.jpa.Account;
+import ru.hd.jpa.AccountBalanceSnapshot;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+// Снимки остатков на конец дня. Проводка относится к дню своего created_at - по той же границе
+// считает и balanceAsOf. Баланс же меняется при проведении, которое у переводов конвейера бывает позже
+// создания, поэтому снимок за день пишется только когда день закрыт: прошло SETTLE_TIME после его
+// конца и не осталось непроведенных переводов, созданных до конца дня. Только тогда снимок плюс
+// проводки после него дают один и тот же остаток
+public class BalanceSnapshotService extends SessionService {
+    private static final Logger logger = LoggerFactory.getLogger(BalanceSnapshotService.class);
+
+    public static final ZoneId SNAPSHOT_ZONE = ZoneId.systemDefault();
+    // Запас на транзакции, начатые до конца дня и еще не зафиксированные
+    static final Duration SETTLE_TIME = Duration.ofMinutes(10);
+
+    // Сетка частей фиксирована (id / размер части), поэтому повторная регистрация только добавляет
+    // части для счетов, появившихся за пределами уже известного диапазона
+    private static final String REGISTER_CHUNKS_SQL =
+            "INSERT INTO balance_snapshot_chunks (snapshot_date, first_account_id, last_account_id) " +
+                    "SELECT ?, g * %1$d, g * %1$d + %1$d - 1 " +
+                    "FROM generate_series((SELECT min(id) FROM accounts) / %1$d, (SELECT max(id) FROM accounts) / %1$d) AS g " +
+                    "ON CONFLICT (snapshot_date, first_account_id) DO NOTHING";
+    // SKIP LOCKED: параллельные обработчики, в том числе из других экземпляров приложения, берут разные части
+    private static final String CLAIM_CHUNK_SQL =
+            "SELECT first_account_id, last_account_id FROM balance_snapshot_chunks " +
+                    "WHERE snapshot_date = ? AND status = 'PENDING' " +
+                    "ORDER BY first_account_id LIMIT 1 FOR UPDATE SKIP LOCKED";
+    // Остаток на конец дня = текущий баланс минус проведенные после конца дня суммы. Один оператор
+    // видит балансы и проводки в одном снимке MVCC; повторный запуск перезаписывает те же строки
+    private static final String WRITE_SNAPSHOTS_SQL =
+            "INSERT INTO account_balance_snapshots (account_id, snapshot_date, balance) " +
+                    "SELECT a.id, ?, a.balance - COALESCE(later.delta, 0) " +
+                    "FROM accounts a " +
+                    "LEFT JOIN (SELECT account_id, SUM(delta) AS delta FROM (" +
+                    "SELECT t.to_account_id AS account_id, t.amount AS delta FROM transactions t " +
+                    "WHERE t.status = 'COMPLETED' AND t.created_at >= ? AND t.to_account_id BETWEEN ? AND ? " +
+                    "UNION ALL " +
+                    "SELECT t.from_account_id, -t.amount FROM transactions t " +
+                    "WHERE t.status = 'COMPLETED' AND t.created_at >= ? AND t.from_account_id BETWEEN ? AND ?" +
+                    ") moves GROUP BY account_id) later ON later.account_id = a.id " +
+                    "WHERE a.id BETWEEN ? AND ? " +
+                    "ON CONFLICT (account_id, snapshot_date) DO UPDATE SET balance = EXCLUDED.balance, created_at = now()";
+    // Идет по частичному индексу непроведенных переводов
+    private static final String HAS_UNAPPLIED_SQL =
+            "SELECT EXISTS (SELECT 1 FROM transactions WHERE status = 'PENDING' AND created_at < ?)";
+    private static final String COMPLETE_CHUNK_SQL =
+            "UPDATE balance_snapshot_chunks SET status = 'DONE', completed_at = now() " +
+                    "WHERE snapshot_date = ? AND first_account_id = ?";
+    private static final String COUNT_PENDING_CHUNKS_SQL =
+            "SELECT count(*) FROM balance_snapshot_chunks WHERE snapshot_date = ? AND status = 'PENDING'";
+
+    public int registerChunks(Session session, LocalDate day, int chunkSize) throws BankingOperationException {
+        validateSession(session);
+        validateDay(day);
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Размер части должен быть положительным");
+        }
+        int registered = inTransaction(session, () -> session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(String.format(REGISTER_CHUNKS_SQL, chunkSize))) {
+                statement.setObject(1, day);
+                return statement.executeUpdate();
+            }
+        }));
+        if (registered > 0) {
+            logger.info("Снимок остатков за {}: зарегистрировано частей {}", day, registered);
+        }
+        return registered;
+    }
+
+    // Берет одну незавершенную часть, пишет ее снимки и помечает готовой в одной транзакции.
+    // false - незавершенных частей, доступных этому обработчику, больше нет или день еще не закрыт
+    public boolean processNextChunk(Session session, LocalDate day) throws BankingOperationException {
+        validateSession(session);
+        validateDay(day);
+        Timestamp dayEnd = Timestamp.from(endOfDay(day));
+        return inTransaction(session, () -> session.doReturningWork(connection ->
+                isSettled(connection, day, dayEnd) && processNextChunk(connection, day, dayEnd)));
+    }
+
+    // Непроведенный перевод за день после проверки появиться не может: новые строки получают текущее
+    // время, а оно позже конца дня
+    public boolean isDaySettled(Session session, LocalDate day) {
+        validateSession(session);
+        validateDay(day);
+        Timestamp dayEnd = Timestamp.from(endOfDay(day));
+        return session.doReturningWork(connection -> isSettled(connection, day, dayEnd));
+    }
+
+    private boolean isSettled(Connection connection, LocalDate day, Timestamp dayEnd) throws SQLException {
+        if (Instant.now().isBefore(endOfDay(day).plus(SETTLE_TIME))) {
+            return false;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(HAS_UNAPPLIED_SQL)) {
+            statement.setTimestamp(1, dayEnd);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return !rs.getBoolean(1);
+            }
+        }
+    }
+
+    private boolean processNextChunk(Connection connection, LocalDate day, Timestamp dayEnd) throws SQLException {
+        long firstAccountId;
+        long lastAccountId;
+        try (PreparedStatement claim = connection.prepareStatement(CLAIM_CHUNK_SQL)) {
+            claim.setObject(1, day);
+            try (ResultSet rs = claim.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                firstAccountId = rs.getLong(1);
+                lastAccountId = rs.getLong(2);
+            }
+        }
+
+        long startedAt = System.nanoTime();
+        int written;
+        try (PreparedStatement write = connection.prepareStatement(WRITE_SNAPSHOTS_SQL)) {
+            write.setObject(1, day);
+            write.setTimestamp(2, dayEnd);
+            write.setLong(3, firstAccountId);
+            write.setLong(4, lastAccountId);
+            write.setTimestamp(5, dayEnd);
+            write.setLong(6, firstAccountId);
+            write.setLong(7, lastAccountId);
+            write.setLong(8, firstAccountId);
+            write.setLong(9, lastAccountId);
+            written = write.executeUpdate();
+        }
+        try (PreparedStatement complete = connection.prepareStatement(COMPLETE_CHUNK_SQL)) {
+            complete.setObject(1, day);
+            complete.setLong(2, firstAccountId);
+            complete.executeUpdate();
+        }
+        logger.debug("Снимок остатков за {}: счета {}-{}, строк {}, за {} мс", day, firstAccountId, lastAccountId,
+                written, (System.nanoTime() - startedAt) / 1_000_000);
+        return true;
+    }
+
+    public long countPendingChunks(Session session, LocalDate day) {
+        validateSession(session);
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(COUNT_PENDING_CHUNKS_SQL)) {
+                statement.setObject(1, day);
+                try (ResultSet rs = statement.executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            }
+        });
+    }
+
+    // Остаток на момент: последний снимок за день до дня момента и проводки от конца дня снимка до момента.
+    // Обычно это проводки одного дня. Без снимка (новый счет, пропуск в заданиях) остаток считается назад
+    // от текущего баланса: проводки от момента до сейчас. Сумма всей истории не годится - старые секции
+    // журнала отсоединяются (transactions.partitions.retention-months), поэтому и момент без снимка
+    // должен быть не старше хранимых секций
+    public BigDecimal balanceAsOf(Session session, Long accountId, Instant at) throws AccountNotFoundException {
+        validateSession(session);
+        if (at == null) {
+            throw new IllegalArgumentException("Момент времени не указан");
+        }
+        if (accountId == null || session.get(Account.class, accountId) == null) {
+            throw new AccountNotFoundException(accountId);
+        }
+
+        LocalDate day = at.atZone(SNAPSHOT_ZONE).toLocalDate();
+        AccountBalanceSnapshot snapshot = session.createQuery(
+                        "FROM AccountBalanceSnapshot s WHERE s.accountId = :accountId AND s.snapshotDate < :day " +
+                                "ORDER BY s.snapshotDate DESC", AccountBalanceSnapshot.class)
+                .setParameter("accountId", accountId)
+                .setParameter("day", day)
+                .setMaxResults(1)
+                .uniqueResult();
+
+        if (snapshot == null) {
+            return balanceBefore(session, accountId, at);
+        }
+        Instant from = endOfDay(snapshot.getSnapshotDate());
+        return snapshot.getBalance()
+                .add(sumMoves(session, "t.toAccount.id", accountId, from, at))
+                .subtract(sumMoves(session, "t.fromAccount.id", accountId, from, at));
+    }
+
+    // Баланс и проводки после момента читаются одним запросом, то есть в одном снимке MVCC
+    private BigDecimal balanceBefore(Session session, Long accountId, Instant at) {
+        return session.createQuery(
+                        "SELECT a.balance " +
+                                "- COALESCE((SELECT SUM(t.amount) FROM TransactionRecord t WHERE t.toAccount.id = a.id " +
+                                "AND t.status = COMPLETED AND t.createdAt >= :at), 0) " +
+                                "+ COALESCE((SELECT SUM(t.amount) FROM TransactionRecord t WHERE t.fromAccount.id = a.id " +
+                                "AND t.status = COMPLETED AND t.createdAt >= :at), 0) " +
+                                "FROM Account a WHERE a.id = :accountId", BigDecimal.class)
+                .setParameter("accountId", accountId)
+                .setParameter("at", at)
+                .getSingleResult();
+    }
+
+    // Отдельные суммы по зачислениям и списаниям идут по индексам (to/from_account_id, created_at, id)
+    private BigDecimal sumMoves(Session session, String accountPath, Long accountId, Instant from, Instant to) {
+        BigDecimal sum = session.createQuery(
+                        "SELECT SUM(t.amount) FROM TransactionRecord t WHERE " + accountPath + " = :accountId " +
+                                "AND t.status = COMPLETED AND t.createdAt >= :from AND t.createdAt < :to", BigDecimal.class)
+                .setParameter("accountId", accountId)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .uniqueResult();
+        return sum != null ? sum : BigDecimal.ZERO;
+    }
+
+    public static Instant endOfDay(LocalDate day) {
+        return day.plusDays(1).atStartOfDay(SNAPSHOT_ZONE).toInstant();
+    }
+
+    // Снимок за незакончившийся день устарел бы сразу после записи
+    private void validateDay(LocalDate day) {
+        if (day == null || !day.isBefore(LocalDate.now(SNAPSHOT_ZONE))) {
+            throw new IllegalArgumentException("Снимок остатков возможен только за прошедший день: " + day);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import jakarta.persistence.RollbackException;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
 import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.query.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.hd.exception.BankingOperationException;
@@ -12,8 +14,16 @@ import ru.hd.exception.InvalidPhoneNumberException;
 import ru.hd.exception.InvalidTaxIdentifierException;
 import ru.hd.jpa.Client;
 import ru.hd.jpa.PassportScan;
+import ru.hd.model.ClientSortField;
+import ru.hd.model.SortCriteria;
+import ru.hd.model.SortKey;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import static ru.hd.util.ValidationPattern.INN;
 import static ru.hd.util.ValidationPattern.PHONE;
@@ -21,7 +31,38 @@ import static ru.hd.util.ValidationPattern.PHONE;
 public class ClientService extends SessionService {
     private static final Logger logger = LoggerFactory.getLogger(ClientService.class);
 
-    public Client createClient(Session session, Client client, byte[] fileBytes)
+    public static final int MIN_SEARCH_LENGTH = 3;
+    // Поиск показывает только лучшие совпадения, глубокое пролистывание выдачи не нужно
+    public static final int MAX_SEARCH_RESULTS = 1000;
+
+    private static final Pattern DIGITS_TERM = Pattern.compile("^[+\\d\\s()-]+$");
+    private static final Pattern NON_DIGITS = Pattern.compile("\\D");
+
+    // ФИО: GiST-индекс по триграммам (gist_trgm_ops) отдает строки сразу в порядке расстояния <<->,
+    // поэтому LIMIT останавливает просмотр индекса, а не сортирует все совпадения частой подстроки.
+    // Вхождение подстроки дает расстояние 0, такие строки идут первыми
+    private static final String NAME_SEARCH_WHERE =
+            "c.full_name ILIKE :pattern OR :term <% c.full_name";
+    private static final String NAME_SEARCH_ORDER =
+            ":term <<-> c.full_name, c.id";
+    // Телефон и ИНН: вхождение подстроки по GIN-индексам, без ранжирования - порядок по id
+    // тоже позволяет остановиться на LIMIT
+    private static final String DIGITS_SEARCH_WHERE =
+            "c.phone_number LIKE :pattern OR c.inn LIKE :pattern";
+    private static final String DIGITS_SEARCH_ORDER = "c.id";
+
+    private final PassportScanService passportScanService;
+
+    public ClientService() {
+        this(new PassportScanService());
+    }
+
+    public ClientService(PassportScanService passportScanService) {
+        this.passportScanService = passportScanService;
+    }
+
+    // scanFile - загруженный файл скана паспорта или null; содержимое передается в БД потоком
+    public Client createClient(Session session, Client client, Path scanFile)
             throws BankingOperationException {
         validateSession(session);
         Transaction transaction = null;
@@ -30,11 +71,9 @@ public class ClientService extends SessionService {
             validateINN(client.getInn());
 
             transaction = session.beginTransaction();
-            if (fileBytes != null && fileBytes.length > 0) {
-                PassportScan passportScan = new PassportScan();
-                passportScan.setClient(client);
-                client.setPassportScan(passportScan);
-                passportScan.setScan(fileBytes);
+            if (hasContent(scanFile)) {
+                Long scanId = passportScanService.store(session, scanFile);
+                client.setPassportScan(session.getReference(PassportScan.class, scanId));
             }
             session.persist(client);
             transaction.commit();
@@ -50,7 +89,7 @@ public class ClientService extends SessionService {
         }
     }
 
-    public Client updateClientWithPassportScan(Session session, Client updatedClient, byte[] fileBytes) throws ClientNotFoundException, InvalidTaxIdentifierException, InvalidPhoneNumberException {
+    public Client updateClientWithPassportScan(Session session, Client updatedClient, Path scanFile) throws ClientNotFoundException, InvalidTaxIdentifierException, InvalidPhoneNumberException {
         validateSession(session);
         Transaction transaction = null;
         try {
@@ -72,14 +111,15 @@ public class ClientService extends SessionService {
             existingClient.setInn(updatedClient.getInn());
             existingClient.setAddress(updatedClient.getAddress());
 
-            if (fileBytes != null && fileBytes.length > 0) {
+            if (hasContent(scanFile)) {
+                // Id берется из ссылки без загрузки самого скана
                 PassportScan passportScan = existingClient.getPassportScan();
                 if (passportScan == null) {
-                    passportScan = new PassportScan();
-                    passportScan.setClient(existingClient);
-                    existingClient.setPassportScan(passportScan);
+                    Long scanId = passportScanService.store(session, scanFile);
+                    existingClient.setPassportScan(session.getReference(PassportScan.class, scanId));
+                } else {
+                    passportScanService.replace(session, passportScan.getId(), scanFile);
                 }
-                passportScan.setScan(fileBytes);
             }
             session.merge(existingClient);
             transaction.commit();
@@ -102,7 +142,7 @@ public class ClientService extends SessionService {
 
     public List<Client> getClients(Session session, int offset, int limit) {
         validateSession(session);
-        return session.createQuery("FROM Client", Client.class)
+        return session.createQuery("FROM Client c ORDER BY c.id", Client.class)
                 .setFirstResult(offset)
                 .setMaxResults(limit)
                 .getResultList();
@@ -110,7 +150,80 @@ public class ClientService extends SessionService {
 
     public List<Client> getAllClients(Session session) {
         validateSession(session);
-        return session.createQuery("FROM Client", Client.class).getResultList();
+        return session.createQuery("FROM Client c ORDER BY c.id", Client.class).getResultList();
+    }
+
+    // Выборка после последнего показанного id: стоимость не зависит от глубины прокрутки
+    public List<Client> getClientsAfter(Session session, Long afterId, int skip, int limit) {
+        return getClientsAfter(session, SortCriteria.ascending(ClientSortField.ID),
+                afterId != null ? new SortKey(afterId, afterId) : null, skip, limit);
+    }
+
+    public List<Client> getClientsAfter(Session session, SortCriteria<ClientSortField> sort, SortKey after,
+                                        int skip, int limit) {
+        validateSession(session);
+        String sortPath = sortPath(sort.field());
+        String where = after != null ? "WHERE " + keysetCondition(sortPath, "c.id", sort.descending()) + " " : "";
+        Query<Client> query = session.createQuery(
+                "FROM Client c " + where + keysetOrderBy(sortPath, "c.id", sort.descending()), Client.class);
+        if (after != null) {
+            bindKeyset(query, sortPath, "c.id", after);
+        }
+        return query.setFirstResult(skip)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    public static SortKey sortKeyOf(Client client, ClientSortField field) {
+        Object value = switch (field) {
+            case ID -> client.getId();
+            case FULL_NAME -> client.getFullName();
+            case INN -> client.getInn();
+        };
+        return new SortKey(value, client.getId());
+    }
+
+    private static String sortPath(ClientSortField field) {
+        return switch (field) {
+            case ID -> "c.id";
+            case FULL_NAME -> "c.fullName";
+            case INN -> "c.inn";
+        };
+    }
+
+    // Строка из цифр ищется по вхождению в телефон и ИНН, остальное - по ФИО с учетом опечаток.
+    // ФИО упорядочены по убыванию схожести, телефоны и ИНН - по id; не больше MAX_SEARCH_RESULTS
+    public List<Client> search(Session session, String term, int offset, int limit) {
+        validateSession(session);
+        String normalized = normalizeSearchTerm(term);
+        int maxResults = Math.min(limit, MAX_SEARCH_RESULTS - offset);
+        if (normalized.length() < MIN_SEARCH_LENGTH || maxResults <= 0) {
+            return List.of();
+        }
+
+        boolean digits = isDigitsTerm(normalized);
+        String sql = "SELECT c.* FROM clients c WHERE " + (digits ? DIGITS_SEARCH_WHERE : NAME_SEARCH_WHERE)
+                + " ORDER BY " + (digits ? DIGITS_SEARCH_ORDER : NAME_SEARCH_ORDER);
+        NativeQuery<Client> query = session.createNativeQuery(sql, Client.class);
+        bindSearchParameters(query, normalized, digits);
+        return query.setFirstResult(offset)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    public int countSearchResults(Session session, String term) {
+        validateSession(session);
+        String normalized = normalizeSearchTerm(term);
+        if (normalized.length() < MIN_SEARCH_LENGTH) {
+            return 0;
+        }
+
+        boolean digits = isDigitsTerm(normalized);
+        String sql = "SELECT count(*) FROM (SELECT 1 FROM clients c WHERE "
+                + (digits ? DIGITS_SEARCH_WHERE : NAME_SEARCH_WHERE) + " LIMIT " + MAX_SEARCH_RESULTS + ") found";
+        NativeQuery<Number> query = session.createNativeQuery(sql, Number.class);
+        bindSearchParameters(query, normalized, digits);
+        return query.getSingleResult().intValue();
     }
 
     public int getTotalClientsCount(Session session) {
@@ -120,12 +233,50 @@ public class ClientService extends SessionService {
                 .intValue();
     }
 
-    public PassportScan initializePassportScan(Session session, Client client) {
-        Client existingClient = session.createQuery("SELECT c FROM Client c LEFT JOIN FETCH c.passportScan WHERE c.id = :id",
-                        Client.class)
-                .setParameter("id", client.getId())
+    public long estimateClientsCount(Session session) {
+        validateSession(session);
+        return estimateRowCount(session, "clients");
+    }
+
+    // null, если у клиента нет скана паспорта; сам скан не загружается
+    public Long getPassportScanId(Session session, Long clientId) {
+        validateSession(session);
+        return session.createQuery("SELECT c.passportScan.id FROM Client c WHERE c.id = :id", Long.class)
+                .setParameter("id", clientId)
                 .uniqueResult();
-        return existingClient != null ? existingClient.getPassportScan() : null;
+    }
+
+    private boolean hasContent(Path scanFile) {
+        try {
+            return scanFile != null && Files.size(scanFile) > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Файл скана паспорта недоступен: " + scanFile, e);
+        }
+    }
+
+    private String normalizeSearchTerm(String term) {
+        if (term == null) {
+            return "";
+        }
+        String trimmed = term.strip();
+        return isDigitsTerm(trimmed) ? NON_DIGITS.matcher(trimmed).replaceAll("") : trimmed;
+    }
+
+    private boolean isDigitsTerm(String term) {
+        return !term.isEmpty() && DIGITS_TERM.matcher(term).matches();
+    }
+
+    private void bindSearchParameters(NativeQuery<?> query, String term, boolean digits) {
+        query.setParameter("pattern", "%" + escapeLikePattern(term) + "%");
+        if (!digits) {
+            query.setParameter("term", term);
+        }
+    }
+
+    private String escapeLikePattern(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
     }
 
     private void validatePhone(String phone) throws InvalidPhoneNumberException {
@@ -160,15 +311,4 @@ public class ClientService extends SessionService {
             }
         }
     }
-
-    private void rollbackSafely(Transaction transaction) {
-        if (transaction != null && transaction.isActive()) {
-            try {
-                transaction.rollback();
-                logger.info("Транзакция успешно откачена");
-            } catch (Exception ex) {
-                logger.error("Ошибка при откате транзакции", ex);
-            }
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+package ru.hd.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Каталог неизменяемых файлов, имя файла - SHA-256 содержимого (ab/cd/abcd...). Одинаковое содержимое
+// хранится один раз. Файл сначала пишется во временный в том же каталоге и только потом атомарно
+// переименовывается, поэтому по имени хэша всегда лежит полный файл. После переименования на диск
+// сбрасывается и каталог: иначе при сбое питания строка в БД с хэшем пережила бы само переименование
+public class ContentAddressedStore {
+    private static final Logger logger = LoggerFactory.getLogger(ContentAddressedStore.class);
+
+    private static final Pattern SHA_256_HEX = Pattern.compile("^[0-9a-f]{64}$");
+    private static final Pattern DERIVED_NAME = Pattern.compile("^[a-z0-9-]+(\\.[a-z0-9]+)?$");
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_DIRECTORY = "tmp";
+
+    public record StoredContent(String hash, long size) {
+    }
+
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream output) throws IOException;
+    }
+
+    private final Path root;
+
+    public ContentAddressedStore(Path root) {
+        this.root = root;
+    }
+
+    public StoredContent put(Path file) throws IOException {
+        return put(output -> Files.copy(file, output));
+    }
+
+    // Хэш считается по ходу записи, второго чтения содержимого нет
+    public StoredContent put(ContentWriter writer) throws IOException {
+        Path tempFile = createTempFile();
+        try {
+            MessageDigest digest = sha256();
+            writeTempFile(tempFile, output -> {
+                DigestOutputStream digestOutput = new DigestOutputStream(output, digest);
+                writer.writeTo(digestOutput);
+                digestOutput.flush();
+            });
+
+            StoredContent content = new StoredContent(HexFormat.of().formatHex(digest.digest()), Files.size(tempFile));
+            Path target = pathFor(content.hash());
+            if (Files.exists(target)) {
+                // Время изменения обновляется, чтобы очистка не удалила файл, пока ссылающаяся
+                // на него строка еще не зафиксирована (см. hashesModifiedBefore)
+                Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+                logger.debug("Содержимое {} уже в хранилище", content.hash());
+                return content;
+            }
+            createDirectories(target.getParent());
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // То же содержимое параллельно записал другой поток
+                logger.debug("Содержимое {} записано параллельно", content.hash());
+            }
+            syncDirectory(target.getParent());
+            return content;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // Производный файл (например, уменьшенная копия) лежит рядом с исходным под именем <hash>.<name>
+    // и так же появляется атомарно; повторная запись заменяет его
+    public void putDerived(String hash, String name, ContentWriter writer) throws IOException {
+        Path target = derivedPath(hash, name);
+        Path tempFile = createTempFile();
+        try {
+            writeTempFile(tempFile, writer);
+            createDirectories(target.getParent());
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory(target.getParent());
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // null, если производного файла еще нет
+    public byte[] readDerived(String hash, String name) throws IOException {
+        try {
+            return Files.readAllBytes(derivedPath(hash, name));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Передача через FileChannel.transferTo: содержимое не собирается в куче целиком. В сокет ядро
+    // копирует без участия процесса; в поток ответа сервлета - через небольшой буфер канала
+    public long transferTo(String hash, OutputStream output) throws IOException {
+        Path path = pathFor(hash);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(output);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            output.flush();
+            return size;
+        } catch (NoSuchFileException e) {
+            throw new IllegalStateException("Файл скана " + hash + " отсутствует в хранилище " + root, e);
+        }
+    }
+
+    // Хэши файлов содержимого (без производных и временных), измененных раньше cutoff.
+    // Поток нужно закрыть
+    public Stream<String> hashesModifiedBefore(Instant cutoff) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return Stream.empty();
+        }
+        return Files.walk(root)
+                .filter(path -> SHA_256_HEX.matcher(path.getFileName().toString()).matches())
+                .filter(path -> isModifiedBefore(path, cutoff))
+                .map(path -> path.getFileName().toString());
+    }
+
+    // Удаляет файл содержимого вместе с производными, если он не изменялся с cutoff: повторная
+    // запись того же содержимого обновляет время изменения. false - файл моложе cutoff или уже удален
+    public boolean deleteIfModifiedBefore(String hash, Instant cutoff) throws IOException {
+        Path path = pathFor(hash);
+        if (!isModifiedBefore(path, cutoff)) {
+            return false;
+        }
+        try (Stream<Path> siblings = Files.list(path.getParent())) {
+            for (Path sibling : siblings.filter(file -> file.getFileName().toString().startsWith(hash + ".")).toList()) {
+                Files.deleteIfExists(sibling);
+            }
+        }
+        return Files.deleteIfExists(path);
+    }
+
+    // Временные файлы записей, прерванных сбоем процесса
+    public int deleteTempFilesBefore(Instant cutoff) throws IOException {
+        Path tempDirectory = root.resolve(TEMP_DIRECTORY);
+        if (!Files.isDirectory(tempDirectory)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (Stream<Path> files = Files.list(tempDirectory)) {
+            for (Path file : files.filter(path -> isModifiedBefore(path, cutoff)).toList()) {
+                if (Files.deleteIfExists(file)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    public boolean contains(String hash) {
+        return Files.exists(pathFor(hash));
+    }
+
+    public boolean containsDerived(String hash, String name) {
+        return Files.exists(derivedPath(hash, name));
+    }
+
+    Path pathFor(String hash) {
+        if (hash == null || !SHA_256_HEX.matcher(hash).matches()) {
+            throw new IllegalArgumentException("Неверный хэш содержимого: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    Path derivedPath(String hash, String name) {
+        if (name == null || !DERIVED_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Неверное имя производного файла: " + name);
+        }
+        return pathFor(hash).resolveSibling(hash + "." + name);
+    }
+
+    private Path createTempFile() throws IOException {
+        Path tempDirectory = Files.createDirectories(root.resolve(TEMP_DIRECTORY));
+        return Files.createTempFile(tempDirectory, "upload", ".tmp");
+    }
+
+    // Новый каталог ab/ или ab/cd/ - такая же запись в родительском каталоге, как и переименование файла
+    private void createDirectories(Path directory) throws IOException {
+        if (Files.isDirectory(directory)) {
+            return;
+        }
+        createDirectories(directory.getParent());
+        try {
+            Files.createDirectory(directory);
+        } catch (FileAlreadyExistsException e) {
+            return;
+        }
+        syncDirectory(directory.getParent());
+    }
+
+    private static boolean isModifiedBefore(Path path, Instant cutoff) {
+        try {
+            return Files.isRegularFile(path) && Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            // Файл удален параллельно
+            return false;
+        }
+    }
+
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private void writeTempFile(Path tempFile, ContentWriter writer) throws IOException {
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE);
+            writer.writeTo(output);
+            output.flush();
+            channel.force(true);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Скан в BYTEA-столбце passport_scans.scan. Пишется и читается потоком, без byte[] на весь файл:
+// при записи драйвер передает поток на сервер, чтение идет частями по CHUNK_SIZE через substring
+public class DatabaseScanStorage extends SessionService implements PassportScanStorage {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseScanStorage.class);
+
+    static final int CHUNK_SIZE = 256 * 1024;
+
+    private static final String INSERT_SQL = "INSERT INTO passport_scans (scan) VALUES (?)";
+    private static final String REPLACE_SQL =
+            "UPDATE passport_scans SET scan = ?, content_hash = NULL, size_bytes = NULL WHERE id = ?";
+    private static final String SIZE_SQL = "SELECT octet_length(scan) FROM passport_scans WHERE id = ?";
+    private static final String READ_CHUNK_SQL = "SELECT substring(scan FROM ? FOR ?) FROM passport_scans WHERE id = ?";
+
+    @Override
+    public Long store(Session session, Path file) {
+        validateSession(session);
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL, new String[]{"id"});
+                 InputStream input = Files.newInputStream(file)) {
+                statement.setBinaryStream(1, input, Files.size(file));
+                statement.executeUpdate();
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    keys.next();
+                    return keys.getLong(1);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка чтения файла скана паспорта", e);
+            }
+        });
+    }
+
+    @Override
+    public void replace(Session session, Long scanId, Path file) {
+        validateSession(session);
+        session.doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(REPLACE_SQL);
+                 InputStream input = Files.newInputStream(file)) {
+                statement.setBinaryStream(1, input, Files.size(file));
+                statement.setLong(2, scanId);
+                statement.executeUpdate();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка чтения файла скана паспорта", e);
+            }
+        });
+    }
+
+    // Части читаются в одной транзакции REPEATABLE READ: замена скана во время чтения не смешает
+    // старые и новые данные
+    @Override
+    public long copyTo(Session session, Long scanId, OutputStream output) {
+        validateSession(session);
+        long startedAt = System.nanoTime();
+        long copied = session.doReturningWork(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            int isolation = connection.getTransactionIsolation();
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                long result = copyTo(connection, scanId, output);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setTransactionIsolation(isolation);
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+        logger.debug("Скан паспорта {} передан: байт={}, за {} мс", scanId, copied, (System.nanoTime() - startedAt) / 1_000_000);
+        return copied;
+    }
+
+    private long copyTo(Connection connection, Long scanId, OutputStream output) throws SQLException {
+        long size;
+        try (PreparedStatement statement = connection.prepareStatement(SIZE_SQL)) {
+            statement.setLong(1, scanId);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return 0;
+                }
+                size = rs.getLong(1);
+            }
+        }
+
+        long position = 1;
+        try (PreparedStatement statement = connection.prepareStatement(READ_CHUNK_SQL)) {
+            while (position <= size) {
+                statement.setLong(1, position);
+                statement.setInt(2, CHUNK_SIZE);
+                statement.setLong(3, scanId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (!rs.next()) {
+                        break;
+                    }
+                    byte[] chunk = rs.getBytes(1);
+                    if (chunk == null || chunk.length == 0) {
+                        break;
+                    }
+                    output.write(chunk);
+                    position += chunk.length;
+                }
+            }
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка передачи скана паспорта", e);
+        }
+        return position - 1;
+    }
+}
@@ -0,0 +1,175 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.exception.BankingOperationException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Скан в ContentAddressedStore; в строке passport_scans только хэш и размер. Файлы не удаляются
+// при замене скана: то же содержимое может принадлежать другим строкам. Файлы, на которые
+// не ссылается ни одна строка, удаляет sweepUnreferenced
+public class FileScanStorage extends SessionService implements PassportScanStorage {
+    private static final Logger logger = LoggerFactory.getLogger(FileScanStorage.class);
+
+    private static final String INSERT_SQL = "INSERT INTO passport_scans (content_hash, size_bytes) VALUES (?, ?)";
+    private static final String REPLACE_SQL =
+            "UPDATE passport_scans SET content_hash = ?, size_bytes = ?, scan = NULL WHERE id = ?";
+    // Условие по content_hash: скан, замененный пользователем во время переноса, не перезаписывается старым
+    private static final String MIGRATE_SQL =
+            "UPDATE passport_scans SET content_hash = ?, size_bytes = ?, scan = NULL WHERE id = ? AND content_hash IS NULL";
+
+    private static final int SWEEP_BATCH_SIZE = 500;
+
+    private final ContentAddressedStore store;
+    // Вызывается с хэшем каждого записанного содержимого, например для создания уменьшенных копий
+    private final Consumer<String> onStored;
+
+    public FileScanStorage(ContentAddressedStore store, Consumer<String> onStored) {
+        this.store = store;
+        this.onStored = onStored;
+    }
+
+    @Override
+    public Long store(Session session, Path file) {
+        validateSession(session);
+        ContentAddressedStore.StoredContent content = put(file);
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL, new String[]{"id"})) {
+                statement.setString(1, content.hash());
+                statement.setLong(2, content.size());
+                statement.executeUpdate();
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    keys.next();
+                    return keys.getLong(1);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void replace(Session session, Long scanId, Path file) {
+        validateSession(session);
+        ContentAddressedStore.StoredContent content = put(file);
+        session.doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(REPLACE_SQL)) {
+                statement.setString(1, content.hash());
+                statement.setLong(2, content.size());
+                statement.setLong(3, scanId);
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public long copyTo(Session session, Long scanId, OutputStream output) {
+        validateSession(session);
+        String hash = session.createQuery("SELECT p.contentHash FROM PassportScan p WHERE p.id = :id", String.class)
+                .setParameter("id", scanId)
+                .uniqueResult();
+        if (hash == null) {
+            return 0;
+        }
+        try {
+            return store.transferTo(hash, output);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка передачи скана паспорта " + scanId, e);
+        }
+    }
+
+    // Переносит BYTEA-скан в хранилище: содержимое идет из БД частями прямо в файл, затем в одной
+    // транзакции строка получает хэш, а scan очищается. false - строка уже перенесена или заменена
+    public boolean migrateFromDatabase(Session session, Long scanId, DatabaseScanStorage source)
+            throws BankingOperationException {
+        validateSession(session);
+        ContentAddressedStore.StoredContent content;
+        try {
+            content = store.put(output -> source.copyTo(session, scanId, output));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка записи скана паспорта " + scanId + " в хранилище", e);
+        }
+        onStored.accept(content.hash());
+
+        // JDBC, а не native-запрос Hibernate: тот сбросил бы весь кэш второго уровня
+        int updated = inTransaction(session, () -> session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(MIGRATE_SQL)) {
+                statement.setString(1, content.hash());
+                statement.setLong(2, content.size());
+                statement.setLong(3, scanId);
+                return statement.executeUpdate();
+            }
+        }));
+        if (updated > 0) {
+            logger.debug("Скан паспорта {} перенесен в хранилище: хэш={}, байт={}", scanId, content.hash(), content.size());
+        }
+        return updated > 0;
+    }
+
+    public long countNotMigrated(Session session) {
+        validateSession(session);
+        return session.createQuery("SELECT COUNT(p) FROM PassportScan p WHERE p.contentHash IS NULL", Long.class)
+                .getSingleResult();
+    }
+
+    // Удаляет содержимое откаченных вставок и замененных сканов. Файл, измененный после cutoff,
+    // не трогается: ссылающаяся на него строка может быть еще не зафиксирована
+    public int sweepUnreferenced(Session session, Instant cutoff) {
+        validateSession(session);
+        int deleted = 0;
+        try (Stream<String> hashes = store.hashesModifiedBefore(cutoff)) {
+            Iterator<String> iterator = hashes.iterator();
+            List<String> batch = new ArrayList<>(SWEEP_BATCH_SIZE);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == SWEEP_BATCH_SIZE || !iterator.hasNext()) {
+                    deleted += deleteUnreferenced(session, batch, cutoff);
+                    batch.clear();
+                }
+            }
+            int tempFiles = store.deleteTempFilesBefore(cutoff);
+            logger.info("Очистка хранилища сканов: удалено файлов без ссылок {}, временных файлов {}", deleted, tempFiles);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка очистки хранилища сканов паспортов", e);
+        }
+        return deleted;
+    }
+
+    private int deleteUnreferenced(Session session, List<String> hashes, Instant cutoff) throws IOException {
+        Set<String> referenced = new HashSet<>(session.createQuery(
+                        "SELECT p.contentHash FROM PassportScan p WHERE p.contentHash IN :hashes", String.class)
+                .setParameterList("hashes", hashes)
+                .getResultList());
+        int deleted = 0;
+        for (String hash : hashes) {
+            if (!referenced.contains(hash) && store.deleteIfModifiedBefore(hash, cutoff)) {
+                logger.debug("Удален файл скана без ссылок: {}", hash);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private ContentAddressedStore.StoredContent put(Path file) {
+        try {
+            ContentAddressedStore.StoredContent content = store.put(file);
+            onStored.accept(content.hash());
+            return content;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка записи скана паспорта в хранилище", e);
+        }
+    }
+}
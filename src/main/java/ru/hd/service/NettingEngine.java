@@ -0,0 +1,84 @@
+package ru.hd.service;
+
+import ru.hd.exception.AccountNotFoundException;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.jpa.Account;
+import ru.hd.model.TransferCommand;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class NettingEngine {
+
+    @FunctionalInterface
+    public interface TransferValidator {
+        void validate(Account from, Account to, BigDecimal amount) throws BankingOperationException;
+    }
+
+    public record NettingResult(List<Integer> acceptedIndexes,
+                                Map<Integer, String> rejections,
+                                Map<Long, BigDecimal> netDeltas) {
+
+        public boolean isAccepted(int index) {
+            return !rejections.containsKey(index);
+        }
+    }
+
+    private final TransferValidator validator;
+
+    public NettingEngine(TransferValidator validator) {
+        this.validator = validator;
+    }
+
+    // Переводы окна проверяются строго по порядку на текущих балансах, поэтому ни один счет
+    // не уходит в минус ни на одном шаге; в БД затем пишется только итоговая разница по счету.
+    // Балансы переданных счетов меняются: ожидаются рабочие копии заблокированных строк
+    public NettingResult net(Map<Long, Account> accounts, List<TransferCommand> window) {
+        Map<Long, BigDecimal> openingBalances = new HashMap<>();
+        accounts.forEach((id, account) -> openingBalances.put(id, account.getBalance()));
+
+        List<Integer> accepted = new ArrayList<>();
+        Map<Integer, String> rejections = new TreeMap<>();
+        for (int i = 0; i < window.size(); i++) {
+            TransferCommand command = window.get(i);
+            try {
+                Account from = requireAccount(accounts, command.fromAccountId());
+                Account to = requireAccount(accounts, command.toAccountId());
+                validator.validate(from, to, command.amount());
+                from.setBalance(from.getBalance().subtract(command.amount()));
+                to.setBalance(to.getBalance().add(command.amount()));
+                accepted.add(i);
+            } catch (BankingOperationException e) {
+                rejections.put(i, e.getMessage());
+            }
+        }
+
+        Map<Long, BigDecimal> netDeltas = new TreeMap<>();
+        for (Map.Entry<Long, Account> entry : accounts.entrySet()) {
+            BigDecimal balance = entry.getValue().getBalance();
+            if (balance.signum() < 0) {
+                throw new IllegalStateException("Отрицательный баланс счета " + entry.getKey() + " после взаимозачета");
+            }
+            BigDecimal delta = balance.subtract(openingBalances.get(entry.getKey()));
+            if (delta.signum() != 0) {
+                netDeltas.put(entry.getKey(), delta);
+            }
+        }
+        return new NettingResult(Collections.unmodifiableList(accepted),
+                Collections.unmodifiableMap(rejections),
+                Collections.unmodifiableMap(netDeltas));
+    }
+
+    private Account requireAccount(Map<Long, Account> accounts, Long accountId) throws AccountNotFoundException {
+        Account account = accounts.get(accountId);
+        if (account == null) {
+            throw new AccountNotFoundException(accountId);
+        }
+        return account;
+    }
+}
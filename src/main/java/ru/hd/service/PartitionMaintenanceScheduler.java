@@ -0,0 +1,38 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.util.AppProperties;
+import ru.hd.util.HibernateUtil;
+import ru.hd.util.ScheduledJob;
+
+import java.time.YearMonth;
+import java.util.concurrent.TimeUnit;
+
+public class PartitionMaintenanceScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionMaintenanceScheduler.class);
+
+    private final TransactionPartitionService partitionService = new TransactionPartitionService();
+    private final int monthsAhead = AppProperties.getInt("transactions.partitions.months-ahead", 3);
+    private final int retentionMonths = AppProperties.getInt("transactions.partitions.retention-months", 0);
+    private final long intervalHours = AppProperties.getLong("transactions.partitions.check-interval-hours", 24);
+
+    public void start() {
+        ScheduledJob.withFixedDelay("partition-maintenance", 0, intervalHours, TimeUnit.HOURS, this::runMaintenance);
+        logger.info("Обслуживание секций транзакций запущено: вперед на {} мес., хранение {} мес.",
+                monthsAhead, retentionMonths > 0 ? retentionMonths : "без ограничения");
+    }
+
+    private void runMaintenance() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            partitionService.ensureFuturePartitions(session, monthsAhead);
+            if (partitionService.hasRowsInDefaultPartition(session)) {
+                logger.warn("В секции транзакций по умолчанию есть строки вне окна секций: проверьте created_at");
+            }
+            if (retentionMonths > 0) {
+                partitionService.detachPartitionsBefore(session, YearMonth.now().minusMonths(retentionMonths));
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import ru.hd.exception.BankingOperationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.model.ScanStorageType;
+import ru.hd.util.AppProperties;
+import ru.hd.util.HibernateUtil;
+import ru.hd.util.ScheduledJob;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// Фоновый перенос BYTEA-сканов в файловое хранилище пакетами и очистка хранилища от файлов без ссылок;
+// работает только при passport-scans.storage=FILESYSTEM
+public class PassportScanMigrator {
+    private static final Logger logger = LoggerFactory.getLogger(PassportScanMigrator.class);
+
+    private final PassportScanService passportScanService = new PassportScanService();
+    private final int batchSize = AppProperties.getInt("passport-scans.migration.batch-size", 100);
+    private final long intervalMinutes = AppProperties.getLong("passport-scans.migration.interval-minutes", 10);
+    private final long sweepIntervalHours = AppProperties.getLong("passport-scans.sweep.interval-hours", 24);
+    private final Duration sweepGrace = Duration.ofHours(AppProperties.getLong("passport-scans.sweep.grace-hours", 24));
+
+    public void start() {
+        if (PassportScanService.getConfiguredStorageType() != ScanStorageType.FILESYSTEM) {
+            return;
+        }
+        ScheduledJob.withFixedDelay("passport-scan-migration", 0, intervalMinutes, TimeUnit.MINUTES, this::runMigration);
+        ScheduledJob.withFixedDelay("passport-scan-sweep", sweepIntervalHours, sweepIntervalHours, TimeUnit.HOURS, this::runSweep);
+        logger.info("Перенос сканов паспортов в файловое хранилище запущен: пакет {}", batchSize);
+    }
+
+    // Каждый проход идет по id от начала: сканы, не перенесенные в прошлый раз, пробуются снова
+    private void runMigration() throws BankingOperationException {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Long lastScanId = 0L;
+            while (!Thread.currentThread().isInterrupted()
+                    && (lastScanId = passportScanService.migrateBatch(session, lastScanId, batchSize)) != null) {
+                session.clear();
+            }
+        }
+    }
+
+    private void runSweep() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            passportScanService.sweepUnreferenced(session, Instant.now().minus(sweepGrace));
+        }
+    }
+}
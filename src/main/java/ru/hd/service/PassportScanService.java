@@ -0,0 +1,128 @@
+package ru.hd.service;
+
+import lombok.Getter;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.model.ScanRendition;
+import ru.hd.model.ScanStorageType;
+import ru.hd.util.AppProperties;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+// Новые сканы пишутся в хранилище из passport-scans.storage. Читаются оба вида строк: с хэшем - из
+// файлового хранилища, без хэша - из BYTEA, поэтому перенос старых строк идет без остановки чтения
+public class PassportScanService extends SessionService {
+    private static final Logger logger = LoggerFactory.getLogger(PassportScanService.class);
+
+    @Getter
+    private static final ScanStorageType configuredStorageType =
+            AppProperties.getEnum("passport-scans.storage", ScanStorageType.class, ScanStorageType.DATABASE);
+    private static final ContentAddressedStore configuredContentStore =
+            new ContentAddressedStore(Path.of(AppProperties.get("passport-scans.store-dir", "data/passport-scans")));
+    private static final PassportScanThumbnails configuredThumbnails = new PassportScanThumbnails(configuredContentStore,
+            AppProperties.getInt("passport-scans.thumbnails.workers", 2),
+            AppProperties.getLong("passport-scans.thumbnails.cache-max-mb", 64) * 1024 * 1024);
+
+    private final ScanStorageType storageType;
+    private final PassportScanThumbnails thumbnails;
+    private final DatabaseScanStorage databaseStorage = new DatabaseScanStorage();
+    private final FileScanStorage fileStorage;
+
+    public PassportScanService() {
+        this(configuredStorageType, configuredContentStore, configuredThumbnails);
+    }
+
+    public PassportScanService(ScanStorageType storageType, ContentAddressedStore contentStore,
+                               PassportScanThumbnails thumbnails) {
+        this.storageType = storageType;
+        this.thumbnails = thumbnails;
+        this.fileStorage = new FileScanStorage(contentStore, thumbnails::generateAsync);
+    }
+
+    public Long store(Session session, Path file) {
+        return writeStorage().store(session, file);
+    }
+
+    public void replace(Session session, Long scanId, Path file) {
+        writeStorage().replace(session, scanId, file);
+    }
+
+    public long copyTo(Session session, Long scanId, OutputStream output) {
+        validateSession(session);
+        return (contentHashOf(session, scanId) != null ? fileStorage : databaseStorage).copyTo(session, scanId, output);
+    }
+
+    // Уменьшенная копия скана в JPEG. Копии есть только у сканов в файловом хранилище;
+    // для BYTEA-скана или файла, который не читается как изображение, передается оригинал
+    public long copyRenditionTo(Session session, Long scanId, ScanRendition rendition, OutputStream output) {
+        validateSession(session);
+        String hash = contentHashOf(session, scanId);
+        byte[] bytes = hash != null ? thumbnails.get(hash, rendition) : null;
+        if (bytes == null) {
+            return copyTo(session, scanId, output);
+        }
+        try {
+            output.write(bytes);
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка передачи уменьшенной копии скана паспорта " + scanId, e);
+        }
+        return bytes.length;
+    }
+
+    // Переносит до batchSize BYTEA-сканов с id больше afterId в файловое хранилище и возвращает
+    // id последнего просмотренного скана, null - больше нечего переносить. Скан, который не удалось
+    // перенести, пропускается до следующего прохода и не останавливает перенос остальных
+    public Long migrateBatch(Session session, Long afterId, int batchSize) throws BankingOperationException {
+        validateSession(session);
+        List<Long> scanIds = session.createQuery(
+                        "SELECT p.id FROM PassportScan p WHERE p.contentHash IS NULL AND p.id > :afterId " +
+                                "ORDER BY p.id", Long.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(batchSize)
+                .getResultList();
+        if (scanIds.isEmpty()) {
+            return null;
+        }
+
+        int migrated = 0;
+        int failed = 0;
+        for (Long scanId : scanIds) {
+            try {
+                if (fileStorage.migrateFromDatabase(session, scanId, databaseStorage)) {
+                    migrated++;
+                }
+            } catch (RuntimeException e) {
+                failed++;
+                session.clear();
+                logger.warn("Скан паспорта {} не перенесен в файловое хранилище, будет повторен при следующем проходе",
+                        scanId, e);
+            }
+        }
+        logger.info("Сканы паспортов перенесены в файловое хранилище: {}, с ошибкой {}, осталось {}",
+                migrated, failed, fileStorage.countNotMigrated(session));
+        return scanIds.getLast();
+    }
+
+    public int sweepUnreferenced(Session session, Instant cutoff) {
+        validateSession(session);
+        return fileStorage.sweepUnreferenced(session, cutoff);
+    }
+
+    private String contentHashOf(Session session, Long scanId) {
+        return session.createQuery("SELECT p.contentHash FROM PassportScan p WHERE p.id = :id", String.class)
+                .setParameter("id", scanId)
+                .uniqueResult();
+    }
+
+    private PassportScanStorage writeStorage() {
+        return storageType == ScanStorageType.FILESYSTEM ? fileStorage : databaseStorage;
+    }
+}
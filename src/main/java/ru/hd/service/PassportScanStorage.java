@@ -0,0 +1,18 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+// Место хранения содержимого сканов паспортов. Строка passport_scans есть всегда, на нее ссылается клиент;
+// store и replace выполняются в транзакции вызывающего, copyTo - вне транзакции
+public interface PassportScanStorage {
+
+    Long store(Session session, Path file);
+
+    void replace(Session session, Long scanId, Path file);
+
+    // Возвращает число переданных байт
+    long copyTo(Session session, Long scanId, OutputStream output);
+}
@@ -0,0 +1,176 @@
+package ru.hd.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.model.ScanRendition;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Уменьшенные копии сканов: создаются в фоне сразу после записи скана в хранилище и лежат рядом с ним.
+// Готовые копии отдаются из ограниченного по объему кэша; копия, которой еще нет (задача отброшена
+// при переполнении очереди, скан перенесен из BYTEA), создается при первом обращении
+public class PassportScanThumbnails {
+    private static final Logger logger = LoggerFactory.getLogger(PassportScanThumbnails.class);
+
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final float JPEG_QUALITY = 0.8f;
+    // Вес записи "не изображение" в кэше: примерно ключ с хэшем, чтобы такие записи тоже вытеснялись
+    private static final int NO_RENDITION_WEIGHT = 128;
+
+    private record CacheKey(String hash, ScanRendition rendition) {
+    }
+
+    private final ContentAddressedStore store;
+    // Optional.empty() - содержимое не читается как изображение. Хэш определяет содержимое,
+    // поэтому отрицательный результат не устаревает, и файл не декодируется при каждом показе
+    private final Cache<CacheKey, Optional<byte[]>> cache;
+    private final ThreadPoolExecutor executor;
+
+    public PassportScanThumbnails(ContentAddressedStore store, int workers, long cacheMaxBytes) {
+        this.store = store;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(cacheMaxBytes)
+                .<CacheKey, Optional<byte[]>>weigher((_, value) -> value.map(bytes -> bytes.length).orElse(NO_RENDITION_WEIGHT))
+                .build();
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Очередь ограничена: при всплеске загрузок лишние задачи отбрасываются, копия будет создана при чтении
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "scan-thumbnails-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    public void generateAsync(String hash) {
+        executor.execute(() -> {
+            try {
+                for (ScanRendition rendition : ScanRendition.values()) {
+                    if (!store.containsDerived(hash, rendition.getFileName())) {
+                        generate(hash, rendition);
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Ошибка создания уменьшенных копий скана {}", hash, e);
+            }
+        });
+    }
+
+    // null, если содержимое не удалось прочитать как изображение
+    public byte[] get(String hash, ScanRendition rendition) {
+        return cache.get(new CacheKey(hash, rendition), key -> {
+            try {
+                byte[] bytes = store.readDerived(key.hash(), key.rendition().getFileName());
+                return Optional.ofNullable(bytes != null ? bytes : generate(key.hash(), key.rendition()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка чтения уменьшенной копии скана " + key.hash(), e);
+            }
+        }).orElse(null);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private byte[] generate(String hash, ScanRendition rendition) throws IOException {
+        long startedAt = System.nanoTime();
+        BufferedImage source = readScaledDown(store.pathFor(hash), rendition.getMaxSide());
+        if (source == null) {
+            logger.warn("Скан {} не распознан как изображение, уменьшенная копия не создана", hash);
+            return null;
+        }
+
+        BufferedImage scaled = scale(source, rendition.getMaxSide());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeJpeg(scaled, output);
+        byte[] bytes = output.toByteArray();
+        store.putDerived(hash, rendition.getFileName(), out -> out.write(bytes));
+        logger.debug("Уменьшенная копия {} скана {}: {}x{}, байт={}, за {} мс", rendition, hash,
+                scaled.getWidth(), scaled.getHeight(), bytes.length, (System.nanoTime() - startedAt) / 1_000_000);
+        return bytes;
+    }
+
+    // Декодер пропускает строки и столбцы (subsampling), поэтому полноразмерный растр скана
+    // в памяти не создается: читается изображение не больше чем вдвое крупнее нужного
+    private BufferedImage readScaledDown(Path file, int maxSide) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, longestSide / (maxSide * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // JPEG без альфа-канала: прозрачные области PNG заливаются белым
+    private BufferedImage scale(BufferedImage source, int maxSide) {
+        double ratio = Math.min(1.0, (double) maxSide / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private void writeJpeg(BufferedImage image, OutputStream output) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.jpa.TransactionRecord;
+import ru.hd.model.PayrollImportResult;
+import ru.hd.model.RejectedLine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import static ru.hd.util.ValidationPattern.ACCOUNT_NUMBER;
+
+public class PayrollImportService extends SessionService {
+    private static final Logger logger = LoggerFactory.getLogger(PayrollImportService.class);
+
+    private static final int MAX_REPORTED_REJECTIONS = 1000;
+    private static final int PROGRESS_INTERVAL = 10_000;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private static final String CREATE_STAGING_SQL =
+            "CREATE TEMP TABLE payroll_staging (" +
+                    "seq_no BIGINT NOT NULL, " +
+                    "line_no BIGINT NOT NULL, " +
+                    "account_number VARCHAR(20) NOT NULL, " +
+                    "amount NUMERIC(15, 2) NOT NULL) ON COMMIT DROP";
+    private static final String COPY_STAGING_SQL =
+            "COPY payroll_staging (seq_no, line_no, account_number, amount) FROM STDIN";
+    private static final String LOCK_ACCOUNTS_SQL =
+            "SELECT count(*) FROM (" +
+                    "SELECT a.id FROM accounts a " +
+                    "WHERE a.account_number IN (SELECT account_number FROM payroll_staging) " +
+                    "ORDER BY a.id FOR UPDATE) locked";
+    private static final String FIND_REJECTED_SQL =
+            "SELECT s.line_no, s.account_number, s.amount, a.status " +
+                    "FROM payroll_staging s " +
+                    "LEFT JOIN accounts a ON a.account_number = s.account_number " +
+                    "WHERE a.id IS NULL OR a.status <> 'OPEN' " +
+                    "ORDER BY s.line_no";
+    private static final String CREATE_ID_BLOCKS_SQL =
+            "CREATE TEMP TABLE payroll_id_blocks ON COMMIT DROP AS " +
+                    "SELECT g.block_no, nextval('%s') AS hi FROM generate_series(0, %d) AS g(block_no)";
+    private static final String CREDIT_ACCOUNTS_SQL =
+            "UPDATE accounts a SET balance = a.balance + c.total, version = a.version + 1 " +
+                    "FROM (SELECT account_number, SUM(amount) AS total " +
+                    "FROM payroll_staging GROUP BY account_number) c " +
+                    "WHERE a.account_number = c.account_number AND a.status = 'OPEN'";
+    // pooled-генератор считает значение последовательности верхней границей блока из allocationSize id
+    private static final String INSERT_RECORDS_SQL =
+            "INSERT INTO transactions (id, amount, type, status, to_account_id, created_at, updated_at) " +
+                    "SELECT b.hi - %1$d + 1 + s.seq_no %% %1$d, s.amount, 'DEPOSIT', 'COMPLETED', a.id, now(), now() " +
+                    "FROM payroll_staging s " +
+                    "JOIN accounts a ON a.account_number = s.account_number AND a.status = 'OPEN' " +
+                    "JOIN payroll_id_blocks b ON b.block_no = s.seq_no / %1$d";
+
+    record PayrollLine(String accountNumber, BigDecimal amount) {
+    }
+
+    public PayrollImportResult importPayroll(Session session, InputStream csv, LongConsumer progressListener) {
+        validateSession(session);
+        String sequenceName = idSequenceName(session, TransactionRecord.class);
+        int allocationSize = idAllocationSize(session, TransactionRecord.class);
+
+        Transaction transaction = null;
+        try {
+            transaction = session.beginTransaction();
+            PayrollImportResult result = session.doReturningWork(connection ->
+                    importPayroll(connection, csv, progressListener, sequenceName, allocationSize));
+            transaction.commit();
+            evictAllAccounts(session);
+
+            logger.info("Зарплатный реестр загружен: строк={}, зачислено={}, сумма={}, отклонено={}",
+                    result.linesRead(), result.credited(), result.totalAmount(), result.rejectedCount());
+            return result;
+        } catch (RuntimeException e) {
+            rollbackSafely(transaction);
+            logger.error("Ошибка загрузки зарплатного реестра", e);
+            throw e;
+        }
+    }
+
+    private PayrollImportResult importPayroll(Connection connection, InputStream csv, LongConsumer progressListener,
+                                              String sequenceName, int allocationSize) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING_SQL);
+        }
+
+        List<RejectedLine> rejectedLines = new ArrayList<>();
+        StagingStats stats = copyToStaging(connection, csv, progressListener, rejectedLines);
+
+        long rejectedCount = stats.rejectedCount();
+        BigDecimal totalAmount = stats.totalAmount();
+        long credited = 0;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE payroll_staging");
+            statement.executeQuery(LOCK_ACCOUNTS_SQL).close();
+
+            try (ResultSet rs = statement.executeQuery(FIND_REJECTED_SQL)) {
+                while (rs.next()) {
+                    BigDecimal amount = rs.getBigDecimal("amount");
+                    String reason = rs.getString("status") == null ? "Счет не найден" : "Счет закрыт";
+                    rejectedCount++;
+                    totalAmount = totalAmount.subtract(amount);
+                    if (rejectedLines.size() < MAX_REPORTED_REJECTIONS) {
+                        rejectedLines.add(new RejectedLine(rs.getLong("line_no"),
+                                rs.getString("account_number") + ";" + amount.toPlainString(), reason));
+                    }
+                }
+            }
+
+            if (stats.stagedCount() > 0) {
+                long lastBlock = (stats.stagedCount() - 1) / allocationSize;
+                statement.execute(String.format(CREATE_ID_BLOCKS_SQL, sequenceName, lastBlock));
+                statement.executeUpdate(CREDIT_ACCOUNTS_SQL);
+                credited = statement.executeUpdate(String.format(INSERT_RECORDS_SQL, allocationSize));
+            }
+        }
+
+        return new PayrollImportResult(stats.linesRead(), credited, totalAmount, rejectedCount, rejectedLines);
+    }
+
+    private record StagingStats(long linesRead, long stagedCount, long rejectedCount, BigDecimal totalAmount) {
+    }
+
+    // Строки реестра читаются потоком и сразу уходят в COPY, файл целиком в памяти не держится
+    private StagingStats copyToStaging(Connection connection, InputStream csv, LongConsumer progressListener,
+                                       List<RejectedLine> rejectedLines) throws SQLException {
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_STAGING_SQL);
+        long lineNumber = 0;
+        long staged = 0;
+        long rejected = 0;
+        BigDecimal total = BigDecimal.ZERO;
+        StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 128);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber % PROGRESS_INTERVAL == 0) {
+                    progressListener.accept(lineNumber);
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                PayrollLine payrollLine;
+                try {
+                    payrollLine = parseLine(line);
+                } catch (IllegalArgumentException e) {
+                    // Первая строка, которая не разбирается, считается заголовком
+                    if (lineNumber == 1) {
+                        continue;
+                    }
+                    rejected++;
+                    if (rejectedLines.size() < MAX_REPORTED_REJECTIONS) {
+                        rejectedLines.add(new RejectedLine(lineNumber, line, e.getMessage()));
+                    }
+                    continue;
+                }
+
+                buffer.append(staged++).append('\t')
+                        .append(lineNumber).append('\t')
+                        .append(payrollLine.accountNumber()).append('\t')
+                        .append(payrollLine.amount().toPlainString()).append('\n');
+                total = total.add(payrollLine.amount());
+                if (buffer.length() >= COPY_BUFFER_SIZE) {
+                    writeToCopy(copyIn, buffer);
+                }
+            }
+            writeToCopy(copyIn, buffer);
+            copyIn.endCopy();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка чтения зарплатного реестра", e);
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+
+        progressListener.accept(lineNumber);
+        return new StagingStats(lineNumber, staged, rejected, total);
+    }
+
+    private void writeToCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    // Формат строки: номер счета и сумма через ';' или ','; при разделителе ';' допускается десятичная запятая
+    static PayrollLine parseLine(String line) {
+        char delimiter = line.indexOf(';') >= 0 ? ';' : ',';
+        int separator = line.indexOf(delimiter);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Ожидается номер счета и сумма");
+        }
+
+        String accountNumber = line.substring(0, separator).trim();
+        String amountText = line.substring(separator + 1).trim();
+        if (!ACCOUNT_NUMBER.matcher(accountNumber).matches()) {
+            throw new IllegalArgumentException("Неверный номер счета: " + accountNumber);
+        }
+        if (delimiter == ';') {
+            amountText = amountText.replace(',', '.');
+        }
+
+        BigDecimal amount;
+        try {
+            amount = new BigDecimal(amountText);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Неверная сумма: " + amountText);
+        }
+        // Сумма должна помещаться в NUMERIC(15, 2), иначе COPY отклонит весь реестр
+        if (amount.signum() <= 0 || amount.scale() > 2 || amount.precision() - amount.scale() > 13) {
+            throw new IllegalArgumentException("Неверная сумма: " + amountText);
+        }
+        return new PayrollLine(accountNumber, amount);
+    }
+}
@@ -1,12 +1,184 @@
 package ru.hd.service;
 
+import jakarta.persistence.LockModeType;
+import org.hibernate.Cache;
+import org.hibernate.CacheMode;
+import org.hibernate.LockMode;
 import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.Generator;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.jpa.Account;
+import ru.hd.model.SortKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public abstract class SessionService {
+    private static final Logger logger = LoggerFactory.getLogger(SessionService.class);
+    private static final TransactionExecutor transactionExecutor = new TransactionExecutor();
+
+    // reltuples обновляется autovacuum и ANALYZE. Суммируются только листья дерева секций (обычная таблица -
+    // сама себе лист): после ANALYZE родителя его reltuples уже равен сумме секций и посчитался бы дважды,
+    // а autovacuum родителя не анализирует, так что его значение к тому же устаревает
+    private static final String ESTIMATE_ROW_COUNT_SQL =
+            "SELECT CAST(COALESCE(SUM(GREATEST(c.reltuples, 0)), 0) AS BIGINT) " +
+                    "FROM pg_partition_tree(to_regclass(:table)) t JOIN pg_class c ON c.oid = t.relid " +
+                    "WHERE t.isleaf";
+    private static final String NEXT_SEQUENCE_VALUE_SQL = "SELECT nextval(:sequence)";
 
     protected void validateSession(Session session) {
         if (session == null || !session.isOpen()) {
             throw new IllegalStateException("Сессия не открыта");
         }
     }
+
+    protected <T> T inTransaction(Session session, TransactionExecutor.TransactionWork<T> work)
+            throws BankingOperationException {
+        return transactionExecutor.execute(session, work);
+    }
+
+    protected static void rollbackSafely(Transaction transaction) {
+        if (transaction != null && transaction.isActive()) {
+            try {
+                transaction.rollback();
+                logger.info("Транзакция успешно откачена");
+            } catch (Exception ex) {
+                logger.error("Ошибка при откате транзакции", ex);
+            }
+        }
+    }
+
+    // Все строки блокируются одним SELECT ... FOR UPDATE в порядке id, поэтому встречные
+    // операции над одними и теми же счетами не могут заблокировать друг друга
+    protected Map<Long, Account> lockAccounts(Session session, Collection<Long> accountIds) {
+        List<Long> ids = accountIds.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .toList();
+        Map<Long, Account> accounts = new LinkedHashMap<>();
+        if (ids.isEmpty()) {
+            return accounts;
+        }
+
+        long startedAt = System.nanoTime();
+        List<Account> locked = session.createQuery(
+                        "SELECT a FROM Account a WHERE a.id IN :ids ORDER BY a.id", Account.class)
+                .setParameterList("ids", ids)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+        TransactionExecutor.getMetrics().recordLockWait(System.nanoTime() - startedAt);
+
+        locked.forEach(account -> accounts.put(account.getId(), account));
+        return accounts;
+    }
+
+    // Решения по балансу принимаются только по строке из БД: запись в кэше второго уровня
+    // могла устареть после JDBC-обновлений, а прочитанная строка кладется в кэш заново
+    protected Account getAccountBypassingCache(Session session, Long accountId, LockMode lockMode) {
+        CacheMode cacheMode = session.getCacheMode();
+        session.setCacheMode(CacheMode.REFRESH);
+        try {
+            return session.get(Account.class, accountId, lockMode);
+        } finally {
+            session.setCacheMode(cacheMode);
+        }
+    }
+
+    // JDBC-обновления балансов идут в обход Hibernate, поэтому кэш второго уровня сбрасывается вручную
+    protected void evictAccounts(Session session, Collection<Long> accountIds) {
+        Cache cache = session.getSessionFactory().getCache();
+        accountIds.stream()
+                .filter(Objects::nonNull)
+                .forEach(accountId -> cache.evictEntityData(Account.class, accountId));
+    }
+
+    protected void evictAllAccounts(Session session) {
+        session.getSessionFactory().getCache().evictEntityData(Account.class);
+    }
+
+    // Постраничная выборка по ключу для сортировки (поле, id): пути полей приходят только
+    // из перечислений допустимой сортировки, значение ключа передается параметром
+    protected String keysetCondition(String sortPath, String idPath, boolean descending) {
+        String operator = descending ? " < " : " > ";
+        if (sortPath.equals(idPath)) {
+            return idPath + operator + ":afterId";
+        }
+        return "(" + sortPath + ", " + idPath + ")" + operator + "(:afterValue, :afterId)";
+    }
+
+    protected String keysetOrderBy(String sortPath, String idPath, boolean descending) {
+        String direction = descending ? " DESC" : "";
+        if (sortPath.equals(idPath)) {
+            return "ORDER BY " + idPath + direction;
+        }
+        return "ORDER BY " + sortPath + direction + ", " + idPath + direction;
+    }
+
+    protected void bindKeyset(Query<?> query, String sortPath, String idPath, SortKey after) {
+        query.setParameter("afterId", after.id());
+        if (!sortPath.equals(idPath)) {
+            query.setParameter("afterValue", after.value());
+        }
+    }
+
+    // Оценка числа строк по статистике планировщика вместо полного COUNT(*)
+    protected long estimateRowCount(Session session, String tableName) {
+        return session.createNativeQuery(ESTIMATE_ROW_COUNT_SQL, Long.class)
+                .setParameter("table", tableName)
+                .getSingleResult();
+    }
+
+    // Идентификаторы для JDBC-вставок в обход сущностей. pooled-генератор Hibernate считает значение
+    // последовательности верхней границей блока из allocationSize id, поэтому каждый nextval здесь берет
+    // целый блок, не пересекающийся с блоками Hibernate. Неиспользованный остаток блока пропадает
+    protected List<Long> reserveIds(Session session, Class<?> entityClass, int count) {
+        String sequenceName = idSequenceName(session, entityClass);
+        int allocationSize = idAllocationSize(session, entityClass);
+        List<Long> ids = new ArrayList<>(count);
+        while (ids.size() < count) {
+            long hi = session.createNativeQuery(NEXT_SEQUENCE_VALUE_SQL, Long.class)
+                    .setParameter("sequence", sequenceName)
+                    .getSingleResult();
+            for (long id = hi - allocationSize + 1; id <= hi && ids.size() < count; id++) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    // Имя последовательности и шаг pooled-генератора нужны для выдачи id пакетом прямо в SQL
+    protected String idSequenceName(Session session, Class<?> entityClass) {
+        return getSequenceGenerator(session, entityClass).getDatabaseStructure().getPhysicalName().render();
+    }
+
+    protected int idAllocationSize(Session session, Class<?> entityClass) {
+        return getSequenceGenerator(session, entityClass).getDatabaseStructure().getIncrementSize();
+    }
+
+    private SequenceStyleGenerator getSequenceGenerator(Session session, Class<?> entityClass) {
+        if (getGenerator(session, entityClass) instanceof SequenceStyleGenerator sequenceGenerator) {
+            return sequenceGenerator;
+        }
+        throw new IllegalStateException("Идентификаторы " + entityClass.getSimpleName() + " не выдаются последовательностью");
+    }
+
+    private Generator getGenerator(Session session, Class<?> entityClass) {
+        EntityPersister persister = session.unwrap(SharedSessionContractImplementor.class)
+                .getFactory()
+                .getMappingMetamodel()
+                .getEntityDescriptor(entityClass);
+        return persister.getGenerator();
+    }
 }
@@ -0,0 +1,120 @@
+package ru.hd.service;
+
+import jakarta.persistence.OptimisticLockException;
+import lombok.Getter;
+import org.hibernate.JDBCException;
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.exception.TransactionConflictException;
+import ru.hd.util.AppProperties;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Выполняет работу в транзакции и повторяет ее при взаимной блокировке (40P01),
+// ошибке сериализации (40001) или конфликте версий
+public class TransactionExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExecutor.class);
+
+    private static final String DEADLOCK_DETECTED = "40P01";
+    private static final String SERIALIZATION_FAILURE = "40001";
+
+    @Getter
+    private static final TransactionMetrics metrics = new TransactionMetrics();
+
+    private final int maxAttempts;
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+
+    public TransactionExecutor() {
+        this(AppProperties.getInt("transaction.retry.max-attempts", 5),
+                AppProperties.getLong("transaction.retry.backoff-base-ms", 10),
+                AppProperties.getLong("transaction.retry.backoff-max-ms", 200));
+    }
+
+    public TransactionExecutor(int maxAttempts, long backoffBaseMs, long backoffMaxMs) {
+        this.maxAttempts = maxAttempts;
+        this.backoffBaseMs = backoffBaseMs;
+        this.backoffMaxMs = backoffMaxMs;
+    }
+
+    @FunctionalInterface
+    public interface TransactionWork<T> {
+        T execute() throws BankingOperationException;
+    }
+
+    enum ConflictType {
+        DEADLOCK, SERIALIZATION_FAILURE, VERSION_CONFLICT
+    }
+
+    // При повторе сессия очищается: после отката ее содержимое не согласовано с БД
+    public <T> T execute(Session session, TransactionWork<T> work) throws BankingOperationException {
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = null;
+            try {
+                transaction = session.beginTransaction();
+                T result = work.execute();
+                transaction.commit();
+                return result;
+            } catch (BankingOperationException e) {
+                SessionService.rollbackSafely(transaction);
+                throw e;
+            } catch (RuntimeException e) {
+                SessionService.rollbackSafely(transaction);
+                ConflictType conflictType = classify(e);
+                if (conflictType == null) {
+                    throw e;
+                }
+                session.clear();
+                if (attempt >= maxAttempts) {
+                    metrics.recordExhausted(conflictType);
+                    logger.error("Транзакция не выполнена после {} попыток: {}", attempt, conflictType, e);
+                    throw new TransactionConflictException(attempt);
+                }
+                metrics.recordRetry(conflictType);
+                logger.warn("Повтор транзакции: {}, попытка {} из {}", conflictType, attempt, maxAttempts);
+                sleepBeforeRetry(attempt);
+            }
+        }
+    }
+
+    // Ошибка, после которой транзакцию нужно повторить целиком, а не обрабатывать по месту
+    static boolean isConflict(Throwable error) {
+        return classify(error) != null;
+    }
+
+    private static ConflictType classify(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return ConflictType.VERSION_CONFLICT;
+            }
+            String sqlState = null;
+            if (cause instanceof JDBCException jdbcException) {
+                sqlState = jdbcException.getSQLState();
+            } else if (cause instanceof SQLException sqlException) {
+                sqlState = sqlException.getSQLState();
+            }
+            if (DEADLOCK_DETECTED.equals(sqlState)) {
+                return ConflictType.DEADLOCK;
+            }
+            if (SERIALIZATION_FAILURE.equals(sqlState)) {
+                return ConflictType.SERIALIZATION_FAILURE;
+            }
+        }
+        return null;
+    }
+
+    private void sleepBeforeRetry(int attempt) {
+        long cap = Math.min(backoffMaxMs, backoffBaseMs << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание повтора транзакции прервано", e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.model.TransactionFilter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TransactionExportService extends SessionService {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExportService.class);
+
+    private static final int EXPORT_FETCH_SIZE = 1000;
+    private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+    private static final char DELIMITER = ';';
+    private static final String HEADER = "id;created_at;type;status;amount;from_account;to_account";
+
+    private static final String EXPORT_SQL =
+            "SELECT t.id, t.created_at, t.type, t.status, t.amount, fa.account_number, ta.account_number " +
+                    "FROM transactions t " +
+                    "LEFT JOIN accounts fa ON fa.id = t.from_account_id " +
+                    "LEFT JOIN accounts ta ON ta.id = t.to_account_id ";
+
+    // Строки идут из серверного курсора (fetch size работает только вне autocommit) прямо
+    // в поток ответа, поэтому память не зависит от объема выгрузки. Транзакция только для чтения;
+    // режим соединения меняется вне транзакции и восстанавливается до возврата его в пул.
+    // Возвращает число строк
+    public long exportCsv(Session session, TransactionFilter filter, OutputStream output) {
+        validateSession(session);
+        long startedAt = System.nanoTime();
+        try {
+            long rows = session.doReturningWork(connection -> {
+                boolean autoCommit = connection.getAutoCommit();
+                boolean readOnly = connection.isReadOnly();
+                connection.setReadOnly(true);
+                connection.setAutoCommit(false);
+                try {
+                    long result = exportCsv(connection, filter, output);
+                    connection.commit();
+                    return result;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                    connection.setReadOnly(readOnly);
+                }
+            });
+
+            logger.info("Выгрузка транзакций завершена: строк={}, фильтр={}, за {} мс",
+                    rows, filter, (System.nanoTime() - startedAt) / 1_000_000);
+            return rows;
+        } catch (RuntimeException e) {
+            logger.error("Ошибка выгрузки транзакций: фильтр={}", filter, e);
+            throw e;
+        }
+    }
+
+    private long exportCsv(Connection connection, TransactionFilter filter, OutputStream output) throws SQLException {
+        List<Object> parameters = new ArrayList<>();
+        String sql = EXPORT_SQL + buildWhere(filter, parameters) + "ORDER BY t.created_at, t.id";
+        try (PreparedStatement statement = connection.prepareStatement(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), WRITER_BUFFER_SIZE);
+            long rows = 0;
+            try (ResultSet rs = statement.executeQuery()) {
+                writer.write(HEADER);
+                writer.write('\n');
+                while (rs.next()) {
+                    writeRow(writer, rs);
+                    rows++;
+                }
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка записи выгрузки транзакций", e);
+            }
+            return rows;
+        }
+    }
+
+    private String buildWhere(TransactionFilter filter, List<Object> parameters) {
+        List<String> conditions = new ArrayList<>();
+        if (filter.from() != null) {
+            conditions.add("t.created_at >= ?");
+            parameters.add(Timestamp.from(filter.from()));
+        }
+        if (filter.to() != null) {
+            conditions.add("t.created_at < ?");
+            parameters.add(Timestamp.from(filter.to()));
+        }
+        if (filter.accountId() != null) {
+            conditions.add("(t.from_account_id = ? OR t.to_account_id = ?)");
+            parameters.add(filter.accountId());
+            parameters.add(filter.accountId());
+        }
+        // Типы transaction_type и transaction_status есть только в схеме PostgreSQL: на тестовой H2
+        // эти два условия не выполняются, тест выгрузки их не задает
+        if (filter.type() != null) {
+            conditions.add("t.type = CAST(? AS transaction_type)");
+            parameters.add(filter.type().name());
+        }
+        if (filter.status() != null) {
+            conditions.add("t.status = CAST(? AS transaction_status)");
+            parameters.add(filter.status().name());
+        }
+        if (filter.minAmount() != null) {
+            conditions.add("t.amount >= ?");
+            parameters.add(filter.minAmount());
+        }
+        if (filter.maxAmount() != null) {
+            conditions.add("t.amount <= ?");
+            parameters.add(filter.maxAmount());
+        }
+        return conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ";
+    }
+
+    // Поля - числа, даты, значения перечислений и номера счетов: экранирование не требуется
+    private void writeRow(Writer writer, ResultSet rs) throws SQLException, IOException {
+        writer.write(Long.toString(rs.getLong(1)));
+        writer.write(DELIMITER);
+        writer.write(rs.getObject(2, OffsetDateTime.class).toString());
+        writer.write(DELIMITER);
+        writer.write(rs.getString(3));
+        writer.write(DELIMITER);
+        writer.write(rs.getString(4));
+        writer.write(DELIMITER);
+        BigDecimal amount = rs.getBigDecimal(5);
+        writer.write(amount.toPlainString());
+        writer.write(DELIMITER);
+        writeNullable(writer, rs.getString(6));
+        writer.write(DELIMITER);
+        writeNullable(writer, rs.getString(7));
+        writer.write('\n');
+    }
+
+    private void writeNullable(Writer writer, String value) throws IOException {
+        if (value != null) {
+            writer.write(value);
+        }
+    }
+}
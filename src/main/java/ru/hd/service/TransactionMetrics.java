@@ -0,0 +1,76 @@
+package ru.hd.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TransactionMetrics {
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder serializationFailures = new LongAdder();
+    private final LongAdder versionConflicts = new LongAdder();
+    private final LongAdder exhaustedRetries = new LongAdder();
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+
+    void recordRetry(TransactionExecutor.ConflictType conflictType) {
+        retries.increment();
+        recordConflict(conflictType);
+    }
+
+    void recordExhausted(TransactionExecutor.ConflictType conflictType) {
+        exhaustedRetries.increment();
+        recordConflict(conflictType);
+    }
+
+    void recordLockWait(long nanos) {
+        lockAcquisitions.increment();
+        lockWaitNanos.add(nanos);
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getDeadlocks() {
+        return deadlocks.sum();
+    }
+
+    public long getSerializationFailures() {
+        return serializationFailures.sum();
+    }
+
+    public long getVersionConflicts() {
+        return versionConflicts.sum();
+    }
+
+    public long getExhaustedRetries() {
+        return exhaustedRetries.sum();
+    }
+
+    public long getLockAcquisitions() {
+        return lockAcquisitions.sum();
+    }
+
+    public long getLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lockWaitNanos.sum());
+    }
+
+    private void recordConflict(TransactionExecutor.ConflictType conflictType) {
+        switch (conflictType) {
+            case DEADLOCK -> deadlocks.increment();
+            case SERIALIZATION_FAILURE -> serializationFailures.increment();
+            case VERSION_CONFLICT -> versionConflicts.increment();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "retries=" + getRetries() +
+                ", deadlocks=" + getDeadlocks() +
+                ", serializationFailures=" + getSerializationFailures() +
+                ", versionConflicts=" + getVersionConflicts() +
+                ", exhaustedRetries=" + getExhaustedRetries() +
+                ", lockAcquisitions=" + getLockAcquisitions() +
+                ", lockWaitMillis=" + getLockWaitMillis();
+    }
+}
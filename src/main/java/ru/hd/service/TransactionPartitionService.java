@@ -0,0 +1,85 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.exception.BankingOperationException;
+
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class TransactionPartitionService extends SessionService {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionPartitionService.class);
+
+    private static final Pattern MONTHLY_PARTITION = Pattern.compile("transactions_y(\\d{4})m(\\d{2})");
+
+    private static final String LIST_PARTITIONS_SQL =
+            "SELECT c.relname, i.inhdetachpending FROM pg_inherits i " +
+                    "JOIN pg_class c ON c.oid = i.inhrelid " +
+                    "WHERE i.inhparent = to_regclass('transactions') " +
+                    "ORDER BY c.relname";
+    private static final String DEFAULT_PARTITION_HAS_ROWS_SQL =
+            "SELECT EXISTS (SELECT 1 FROM transactions_default)";
+
+    public int ensureFuturePartitions(Session session, int monthsAhead) throws BankingOperationException {
+        validateSession(session);
+        int created = inTransaction(session, () -> session.createNativeQuery(
+                        "SELECT ensure_transactions_partitions(:monthsAhead)", Integer.class)
+                .setParameter("monthsAhead", monthsAhead)
+                .getSingleResult());
+        if (created > 0) {
+            logger.info("Созданы секции таблицы транзакций: {}", created);
+        }
+        return created;
+    }
+
+    // Строки секции по умолчанию переносятся в секцию своего месяца, когда она создается. Остаются они там,
+    // только если месяц вне окна создаваемых секций: прошлый, уже отсоединенный, или слишком далекий
+    public boolean hasRowsInDefaultPartition(Session session) {
+        validateSession(session);
+        return session.createNativeQuery(DEFAULT_PARTITION_HAS_ROWS_SQL, Boolean.class).getSingleResult();
+    }
+
+    // Секция отсоединяется, но не удаляется: таблица остается архивом и может быть выгружена или удалена отдельно
+    public List<String> detachPartitionsBefore(Session session, YearMonth cutoff) {
+        validateSession(session);
+        List<Object[]> partitions = session.createNativeQuery(LIST_PARTITIONS_SQL, Object[].class).getResultList();
+
+        List<String> detached = new ArrayList<>();
+        for (Object[] partition : partitions) {
+            String name = (String) partition[0];
+            boolean detachPending = (Boolean) partition[1];
+            Matcher matcher = MONTHLY_PARTITION.matcher(name);
+            if (!matcher.matches()) {
+                continue;
+            }
+            YearMonth month = YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+            if (!month.isBefore(cutoff)) {
+                continue;
+            }
+
+            // Прерванное отсоединение завершается через FINALIZE, повторный CONCURRENTLY для него недопустим
+            detachPartition(session, name, detachPending ? "FINALIZE" : "CONCURRENTLY");
+            detached.add(name);
+            logger.info("Секция {} отсоединена от таблицы транзакций", name);
+        }
+        return detached;
+    }
+
+    // DETACH ... CONCURRENTLY не выполняется внутри транзакции и не блокирует запись в остальные секции
+    private void detachPartition(Session session, String partitionName, String mode) {
+        session.doWork(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE transactions DETACH PARTITION " + partitionName + " " + mode);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+}
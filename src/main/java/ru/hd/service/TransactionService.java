@@ -1,79 +1,260 @@
 package ru.hd.service;
 
+import jakarta.persistence.LockModeType;
 import org.hibernate.LockMode;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.query.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.hd.exception.*;
 import ru.hd.jpa.Account;
 import ru.hd.jpa.TransactionRecord;
 import ru.hd.model.AccountStatus;
+import ru.hd.model.Currency;
+import ru.hd.model.SortCriteria;
+import ru.hd.model.SortKey;
+import ru.hd.model.TransactionDto;
+import ru.hd.model.TransactionFilter;
+import ru.hd.model.TransactionKey;
+import ru.hd.model.TransactionSortField;
 import ru.hd.model.TransactionStatus;
 import ru.hd.model.TransactionType;
+import ru.hd.model.TransferCommand;
+import ru.hd.model.TransferMode;
+import ru.hd.model.TransferResult;
+import ru.hd.util.AppProperties;
 
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class TransactionService extends SessionService {
     private static final Logger logger = LoggerFactory.getLogger(TransactionService.class);
 
+    private static final int TRANSFER_BATCH_CHUNK_SIZE = 1000;
+    private static final int STATEMENT_FETCH_SIZE = 500;
+    private static final Comparator<TransactionDto> STATEMENT_ORDER =
+            Comparator.comparing(TransactionDto::createdAt).thenComparing(TransactionDto::id);
+
+    private static final String LOCK_ACCOUNTS_SQL =
+            "SELECT id, balance, status, currency FROM accounts WHERE id IN (%s) ORDER BY id FOR UPDATE";
+    private static final String APPLY_BALANCE_DELTA_SQL =
+            "UPDATE accounts SET balance = balance + ?, version = version + 1 WHERE id = ?";
+    // JDBC, а не HQL-обновление: на него Hibernate сбрасывает весь регион счетов и натуральных ключей.
+    // После фиксации из кэша удаляется только измененный счет
+    private static final String DEPOSIT_SQL =
+            "UPDATE accounts SET balance = balance + ?, version = version + 1 WHERE id = ? AND status = 'OPEN'";
+    private static final String WITHDRAW_SQL =
+            "UPDATE accounts SET balance = balance - ?, version = version + 1 " +
+                    "WHERE id = ? AND status = 'OPEN' AND balance >= ?";
+    private static final String ACCOUNT_STATUS_SQL =
+            "SELECT status FROM accounts WHERE id = ?";
+    private static final String INSERT_TRANSFER_SQL =
+            "INSERT INTO transactions (id, amount, type, status, from_account_id, to_account_id, created_at, updated_at) " +
+                    "VALUES (?, ?, 'TRANSFER', 'COMPLETED', ?, ?, ?, ?)";
+
+    private final TransferMode transferMode;
+    private final NettingEngine nettingEngine = new NettingEngine(this::validateTransfer);
+
+    public TransactionService() {
+        this(AppProperties.getEnum("transfer.mode", TransferMode.class, TransferMode.PESSIMISTIC));
+    }
+
+    public TransactionService(TransferMode transferMode) {
+        this.transferMode = transferMode;
+    }
+
     public void transfer(Session session, Long fromAccountId,
                          Long toAccountId, BigDecimal amount)
             throws BankingOperationException {
         validateSession(session);
-        Transaction transaction = null;
         try {
-            transaction = session.beginTransaction();
-
-            Account from = getValidAccount(session, fromAccountId);
-            Account to = getValidAccount(session, toAccountId);
-
-            validateTransfer(from, to, amount);
-
-            executeTransfer(from, to, amount);
-            recordTransaction(session, from, to, amount);
-
-            transaction.commit();
+            inTransaction(session, () -> {
+                Account from;
+                Account to;
+                if (transferMode == TransferMode.OPTIMISTIC) {
+                    // Счета читаются без блокировки, конфликт обнаруживается по версии при коммите
+                    from = getValidAccount(getAccountBypassingCache(session, fromAccountId, LockMode.READ), fromAccountId);
+                    to = getValidAccount(getAccountBypassingCache(session, toAccountId, LockMode.READ), toAccountId);
+                } else {
+                    Map<Long, Account> locked = lockAccounts(session, Arrays.asList(fromAccountId, toAccountId));
+                    from = getValidAccount(locked.get(fromAccountId), fromAccountId);
+                    to = getValidAccount(locked.get(toAccountId), toAccountId);
+                }
+
+                validateTransfer(from, to, amount);
+
+                executeTransfer(from, to, amount);
+                recordTransaction(session, from, to, amount);
+                return null;
+            });
             logger.info("Перевод успешно выполнен: fromAccountId={}, toAccountId={}, amount={}",
                     fromAccountId, toAccountId, amount);
-        } catch (Exception e) {
-            rollbackSafely(transaction);
+        } catch (BankingOperationException | RuntimeException e) {
             logger.error("Ошибка при выполнении перевода: fromAccountId={}, toAccountId={}, amount={}",
                     fromAccountId, toAccountId, amount, e);
             throw e;
         }
     }
 
-    public void depositToAccount(Session session, Account account, BigDecimal amount)
+    public List<TransferResult> transferBatch(Session session, List<TransferCommand> commands) {
+        validateSession(session);
+        List<TransferResult> results = new ArrayList<>(commands.size());
+        for (int start = 0; start < commands.size(); start += TRANSFER_BATCH_CHUNK_SIZE) {
+            int end = Math.min(start + TRANSFER_BATCH_CHUNK_SIZE, commands.size());
+            results.addAll(transferChunk(session, commands.subList(start, end)));
+        }
+
+        long completed = results.stream().filter(TransferResult::isCompleted).count();
+        logger.info("Пакет переводов обработан: всего={}, выполнено={}, отклонено={}",
+                results.size(), completed, results.size() - completed);
+        return results;
+    }
+
+    public TransactionRecord createPendingTransfer(Session session, Long fromAccountId,
+                                                   Long toAccountId, BigDecimal amount)
             throws BankingOperationException {
         validateSession(session);
         if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new InvalidAmountException("Неверная сумма пополнения: " + amount);
+            throw new InvalidAmountException("Сумма перевода должна быть положительной");
         }
-        if (AccountStatus.CLOSED.equals(account.getStatus())) {
-            throw new InvalidAccountStatusException("Нельзя пополнять закрытый счет");
+        if (Objects.equals(fromAccountId, toAccountId)) {
+            throw new SameAccountTransferException(fromAccountId);
         }
 
-        Transaction transaction = null;
-        try {
-            transaction = session.beginTransaction();
+        // Счета здесь не блокируются: проверки баланса и статуса выполняются при применении пакета
+        TransactionRecord transactionRecord = inTransaction(session, () -> {
+            TransactionRecord pending = TransactionRecord.builder()
+                    .amount(amount)
+                    .type(TransactionType.TRANSFER)
+                    .fromAccount(session.getReference(Account.class, fromAccountId))
+                    .toAccount(session.getReference(Account.class, toAccountId))
+                    .status(TransactionStatus.PENDING)
+                    .build();
+            session.persist(pending);
+            return pending;
+        });
+        logger.debug("Перевод принят в обработку: transactionId={}, fromAccountId={}, toAccountId={}, amount={}",
+                transactionRecord.getId(), fromAccountId, toAccountId, amount);
+        return transactionRecord;
+    }
 
-            Account managedAccount = session.get(Account.class, account.getId());
-            if (managedAccount == null) {
-                throw new AccountNotFoundException(account.getId());
+    public Map<Long, TransferResult> applyPendingTransfers(Session session, List<Long> transactionIds)
+            throws BankingOperationException {
+        validateSession(session);
+        if (transactionIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        return inTransaction(session, () -> {
+            // Блокировка записей исключает повторное применение перевода другим обработчиком
+            List<TransactionRecord> pending = session.createQuery(
+                            "SELECT t FROM TransactionRecord t " +
+                                    "WHERE t.id IN :ids AND t.status = ru.hd.model.TransactionStatus.PENDING " +
+                                    "ORDER BY t.id", TransactionRecord.class)
+                    .setParameterList("ids", transactionIds)
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .getResultList();
+
+            List<TransferCommand> commands = pending.stream()
+                    .map(this::toTransferCommand)
+                    .toList();
+            Map<Long, Account> accounts = lockAccounts(session, collectAccountIds(commands));
+
+            Map<Long, TransferResult> results = new LinkedHashMap<>();
+            for (int i = 0; i < pending.size(); i++) {
+                TransactionRecord transactionRecord = pending.get(i);
+                TransferCommand command = commands.get(i);
+                try {
+                    applyTransferInMemory(accounts, command);
+                    transactionRecord.setStatus(TransactionStatus.COMPLETED);
+                    results.put(transactionRecord.getId(), TransferResult.completed(command, transactionRecord.getId()));
+                } catch (BankingOperationException e) {
+                    transactionRecord.setStatus(TransactionStatus.FAILED);
+                    results.put(transactionRecord.getId(),
+                            TransferResult.failed(command, transactionRecord.getId(), e.getMessage()));
+                }
             }
+            return results;
+        });
+    }
 
-            managedAccount.setBalance(managedAccount.getBalance().add(amount));
-            session.merge(managedAccount);
+    public int failPendingTransfers(Session session, List<Long> transactionIds) throws BankingOperationException {
+        validateSession(session);
+        if (transactionIds.isEmpty()) {
+            return 0;
+        }
+        return inTransaction(session, () -> session.createMutationQuery(
+                        "UPDATE TransactionRecord t SET t.status = ru.hd.model.TransactionStatus.FAILED, " +
+                                "t.updatedAt = :now " +
+                                "WHERE t.id IN :ids AND t.status = ru.hd.model.TransactionStatus.PENDING")
+                .setParameter("now", Instant.now())
+                .setParameterList("ids", transactionIds)
+                .executeUpdate());
+    }
 
-            recordDepositTransaction(session, managedAccount, amount);
+    public List<Long> getPendingTransferIds(Session session) {
+        validateSession(session);
+        return session.createQuery(
+                        "SELECT t.id FROM TransactionRecord t " +
+                                "WHERE t.status = ru.hd.model.TransactionStatus.PENDING " +
+                                "AND t.type = ru.hd.model.TransactionType.TRANSFER " +
+                                "ORDER BY t.id", Long.class)
+                .getResultList();
+    }
 
-            transaction.commit();
+    public void depositToAccount(Session session, Account account, BigDecimal amount)
+            throws BankingOperationException {
+        validateSession(session);
+        if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
+            throw new InvalidAmountException("Неверная сумма пополнения: " + amount);
+        }
+        if (AccountStatus.CLOSED.equals(account.getStatus())) {
+            throw new AccountClosedException(account.getId(), "Нельзя пополнять закрытый счет");
+        }
 
-            logger.info("Пополнение счета ID {}: +{}", managedAccount.getId(), amount);
-        } catch (Exception e) {
-            rollbackSafely(transaction);
+        try {
+            inTransaction(session, () -> {
+                int updated = session.doReturningWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(DEPOSIT_SQL)) {
+                        statement.setBigDecimal(1, amount);
+                        statement.setLong(2, account.getId());
+                        return statement.executeUpdate();
+                    }
+                });
+                if (updated == 0) {
+                    throw resolveDepositFailure(session, account.getId());
+                }
+
+                recordDepositTransaction(session, session.getReference(Account.class, account.getId()), amount);
+                refreshIfManaged(session, account);
+                return null;
+            });
+            evictAccounts(session, List.of(account.getId()));
+
+            logger.info("Пополнение счета ID {}: +{}", account.getId(), amount);
+        } catch (BankingOperationException | RuntimeException e) {
             logger.error("Ошибка пополнения счета ID {}", account.getId(), e);
             throw e;
         }
@@ -86,33 +267,28 @@ public class TransactionService extends SessionService {
             throw new InvalidAmountException("Неверная сумма снятия: " + amount);
         }
 
-        Transaction transaction = null;
         try {
-            transaction = session.beginTransaction();
-
-            Account managedAccount = session.get(Account.class, account.getId());
-            if (managedAccount == null) {
-                throw new AccountNotFoundException(account.getId());
-            }
-
-            if (managedAccount.getStatus() != AccountStatus.OPEN) {
-                throw new AccountClosedException(account.getId(), "Счет закрыт");
-            }
-
-            if (managedAccount.getBalance().compareTo(amount) < 0) {
-                throw new InsufficientFundsException(account.getId(), "Недостаточно средств на счете");
-            }
-
-            managedAccount.setBalance(managedAccount.getBalance().subtract(amount));
-            session.merge(managedAccount);
-
-            recordWithdrawTransaction(session, managedAccount, amount);
-
-            transaction.commit();
-
-            logger.info("Снятие средств со счета ID {}: -{}", managedAccount.getId(), amount);
-        } catch (Exception e) {
-            rollbackSafely(transaction);
+            inTransaction(session, () -> {
+                int updated = session.doReturningWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(WITHDRAW_SQL)) {
+                        statement.setBigDecimal(1, amount);
+                        statement.setLong(2, account.getId());
+                        statement.setBigDecimal(3, amount);
+                        return statement.executeUpdate();
+                    }
+                });
+                if (updated == 0) {
+                    throw resolveWithdrawFailure(session, account.getId());
+                }
+
+                recordWithdrawTransaction(session, session.getReference(Account.class, account.getId()), amount);
+                refreshIfManaged(session, account);
+                return null;
+            });
+            evictAccounts(session, List.of(account.getId()));
+
+            logger.info("Снятие средств со счета ID {}: -{}", account.getId(), amount);
+        } catch (BankingOperationException | RuntimeException e) {
             logger.error("Ошибка снятия средств со счета ID {}", account.getId(), e);
             throw e;
         }
@@ -123,18 +299,100 @@ public class TransactionService extends SessionService {
         return session.createQuery(
                         "SELECT t FROM TransactionRecord t " +
                                 "LEFT JOIN FETCH t.fromAccount " +
-                                "LEFT JOIN FETCH t.toAccount", TransactionRecord.class)
+                                "LEFT JOIN FETCH t.toAccount " +
+                                "ORDER BY t.createdAt, t.id", TransactionRecord.class)
                 .setFirstResult(offset)
                 .setMaxResults(limit)
                 .getResultList();
     }
 
+    public List<TransactionDto> getTransactionsAfter(Session session, TransactionKey after, int skip, int limit) {
+        return getTransactionsAfter(session, TransactionFilter.empty(),
+                SortCriteria.ascending(TransactionSortField.CREATED_AT),
+                after != null ? new SortKey(after.createdAt(), after.id()) : null, skip, limit);
+    }
+
+    // Плоская проекция для грида: номера счетов приходят тем же запросом, сущности не загружаются.
+    // Сортировка по (created_at, id) и (amount, id) идет по одноименным составным индексам
+    public List<TransactionDto> getTransactionsAfter(Session session, TransactionFilter filter,
+                                                     SortCriteria<TransactionSortField> sort, SortKey after,
+                                                     int skip, int limit) {
+        validateSession(session);
+        String sortPath = sortPath(sort.field());
+        List<String> conditions = filterConditions(filter);
+        if (after != null) {
+            // Отдельное условие по createdAt позволяет планировщику отбросить секции раньше ключа
+            if (sort.field() == TransactionSortField.CREATED_AT) {
+                conditions.add(sort.descending() ? "t.createdAt <= :afterValue" : "t.createdAt >= :afterValue");
+            }
+            conditions.add(keysetCondition(sortPath, "t.id", sort.descending()));
+        }
+        String where = conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ";
+
+        Query<TransactionDto> query = session.createQuery(
+                "SELECT new ru.hd.model.TransactionDto(t.id, t.amount, t.type, t.status, " +
+                        "fa.accountNumber, ta.accountNumber, t.createdAt, t.updatedAt) " +
+                        "FROM TransactionRecord t " +
+                        "LEFT JOIN t.fromAccount fa " +
+                        "LEFT JOIN t.toAccount ta " +
+                        where +
+                        keysetOrderBy(sortPath, "t.id", sort.descending()), TransactionDto.class);
+        bindFilter(query, filter);
+        if (after != null) {
+            bindKeyset(query, sortPath, "t.id", after);
+        }
+        return query.setFirstResult(skip)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    public static SortKey sortKeyOf(TransactionDto transaction, TransactionSortField field) {
+        Object value = switch (field) {
+            case CREATED_AT -> transaction.createdAt();
+            case AMOUNT -> transaction.amount();
+        };
+        return new SortKey(value, transaction.id());
+    }
+
+    // Выписка читается курсором: проводки по дебету и по кредиту идут двумя запросами по составным
+    // индексам (from_account_id | to_account_id, created_at, id) и сливаются по порядку без сортировки.
+    // Поток держит открытые курсоры, поэтому читать и закрывать его нужно внутри транзакции
+    public Stream<TransactionDto> getStatement(Session session, Long accountId, Instant from, Instant to,
+                                               TransactionKey after) {
+        validateSession(session);
+        Stream<TransactionDto> debits = createStatementQuery(session, "t.fromAccount.id", accountId, from, to, after)
+                .getResultStream();
+        Stream<TransactionDto> credits = createStatementQuery(session, "t.toAccount.id", accountId, from, to, after)
+                .getResultStream();
+        return mergeOrdered(debits, credits);
+    }
+
+    public List<TransactionDto> getStatementPage(Session session, Long accountId, Instant from, Instant to,
+                                                 TransactionKey after, int skip, int limit) {
+        validateSession(session);
+        Transaction transaction = null;
+        try {
+            transaction = session.beginTransaction();
+            List<TransactionDto> page;
+            try (Stream<TransactionDto> statement = getStatement(session, accountId, from, to, after)) {
+                page = statement.skip(skip).limit(limit).toList();
+            }
+            transaction.commit();
+            return page;
+        } catch (RuntimeException e) {
+            rollbackSafely(transaction);
+            logger.error("Ошибка получения выписки по счету ID {}", accountId, e);
+            throw e;
+        }
+    }
+
     public List<TransactionRecord> getAllTransactions(Session session) {
         validateSession(session);
         return session.createQuery(
                         "SELECT t FROM TransactionRecord t " +
                                 "LEFT JOIN FETCH t.fromAccount " +
-                                "LEFT JOIN FETCH t.toAccount", TransactionRecord.class)
+                                "LEFT JOIN FETCH t.toAccount " +
+                                "ORDER BY t.createdAt, t.id", TransactionRecord.class)
                 .getResultList();
     }
 
@@ -145,6 +403,387 @@ public class TransactionService extends SessionService {
                 .intValue();
     }
 
+    public int countTransactions(Session session, TransactionFilter filter) {
+        validateSession(session);
+        List<String> conditions = filterConditions(filter);
+        String where = conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+        Query<Long> query = session.createQuery("SELECT COUNT(t) FROM TransactionRecord t" + where, Long.class);
+        bindFilter(query, filter);
+        return query.getSingleResult().intValue();
+    }
+
+    public long estimateTransactionsCount(Session session) {
+        validateSession(session);
+        return estimateRowCount(session, "transactions");
+    }
+
+    private static String sortPath(TransactionSortField field) {
+        return switch (field) {
+            case CREATED_AT -> "t.createdAt";
+            case AMOUNT -> "t.amount";
+        };
+    }
+
+    private List<String> filterConditions(TransactionFilter filter) {
+        List<String> conditions = new ArrayList<>();
+        if (filter.from() != null) {
+            conditions.add("t.createdAt >= :from");
+        }
+        if (filter.to() != null) {
+            conditions.add("t.createdAt < :to");
+        }
+        if (filter.accountId() != null) {
+            conditions.add("(t.fromAccount.id = :accountId OR t.toAccount.id = :accountId)");
+        }
+        if (filter.type() != null) {
+            conditions.add("t.type = :type");
+        }
+        if (filter.status() != null) {
+            conditions.add("t.status = :status");
+        }
+        if (filter.minAmount() != null) {
+            conditions.add("t.amount >= :minAmount");
+        }
+        if (filter.maxAmount() != null) {
+            conditions.add("t.amount <= :maxAmount");
+        }
+        return conditions;
+    }
+
+    private void bindFilter(Query<?> query, TransactionFilter filter) {
+        if (filter.from() != null) {
+            query.setParameter("from", filter.from());
+        }
+        if (filter.to() != null) {
+            query.setParameter("to", filter.to());
+        }
+        if (filter.accountId() != null) {
+            query.setParameter("accountId", filter.accountId());
+        }
+        if (filter.type() != null) {
+            query.setParameter("type", filter.type());
+        }
+        if (filter.status() != null) {
+            query.setParameter("status", filter.status());
+        }
+        if (filter.minAmount() != null) {
+            query.setParameter("minAmount", filter.minAmount());
+        }
+        if (filter.maxAmount() != null) {
+            query.setParameter("maxAmount", filter.maxAmount());
+        }
+    }
+
+    private Query<TransactionDto> createStatementQuery(Session session, String accountPath, Long accountId,
+                                                      Instant from, Instant to, TransactionKey after) {
+        StringBuilder hql = new StringBuilder(
+                "SELECT new ru.hd.model.TransactionDto(t.id, t.amount, t.type, t.status, " +
+                        "fa.accountNumber, ta.accountNumber, t.createdAt, t.updatedAt) " +
+                        "FROM TransactionRecord t " +
+                        "LEFT JOIN t.fromAccount fa " +
+                        "LEFT JOIN t.toAccount ta " +
+                        "WHERE " + accountPath + " = :accountId ");
+        if (from != null) {
+            hql.append("AND t.createdAt >= :from ");
+        }
+        if (to != null) {
+            hql.append("AND t.createdAt < :to ");
+        }
+        if (after != null) {
+            hql.append("AND t.createdAt >= :afterCreatedAt AND (t.createdAt, t.id) > (:afterCreatedAt, :afterId) ");
+        }
+        hql.append("ORDER BY t.createdAt, t.id");
+
+        Query<TransactionDto> query = session.createQuery(hql.toString(), TransactionDto.class)
+                .setParameter("accountId", accountId)
+                .setFetchSize(STATEMENT_FETCH_SIZE);
+        if (from != null) {
+            query.setParameter("from", from);
+        }
+        if (to != null) {
+            query.setParameter("to", to);
+        }
+        if (after != null) {
+            query.setParameter("afterCreatedAt", after.createdAt())
+                    .setParameter("afterId", after.id());
+        }
+        return query;
+    }
+
+    private static Stream<TransactionDto> mergeOrdered(Stream<TransactionDto> first, Stream<TransactionDto> second) {
+        Iterator<TransactionDto> firstIterator = first.iterator();
+        Iterator<TransactionDto> secondIterator = second.iterator();
+        Iterator<TransactionDto> merged = new Iterator<>() {
+            private TransactionDto firstHead = firstIterator.hasNext() ? firstIterator.next() : null;
+            private TransactionDto secondHead = secondIterator.hasNext() ? secondIterator.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return firstHead != null || secondHead != null;
+            }
+
+            @Override
+            public TransactionDto next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                TransactionDto result;
+                if (secondHead == null || (firstHead != null && STATEMENT_ORDER.compare(firstHead, secondHead) <= 0)) {
+                    result = firstHead;
+                    firstHead = firstIterator.hasNext() ? firstIterator.next() : null;
+                } else {
+                    result = secondHead;
+                    secondHead = secondIterator.hasNext() ? secondIterator.next() : null;
+                }
+                return result;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(first::close)
+                .onClose(second::close);
+    }
+
+    // Условное обновление не затронуло строку - причина выясняется чтением самой строки в той же
+    // транзакции: счет в сессии или в кэше второго уровня мог устареть
+    private BankingOperationException resolveDepositFailure(Session session, Long accountId) {
+        AccountStatus status = readAccountStatus(session, accountId);
+        if (status == null) {
+            return new AccountNotFoundException(accountId);
+        }
+        return new AccountClosedException(accountId, "Нельзя пополнять закрытый счет");
+    }
+
+    private BankingOperationException resolveWithdrawFailure(Session session, Long accountId) {
+        AccountStatus status = readAccountStatus(session, accountId);
+        if (status == null) {
+            return new AccountNotFoundException(accountId);
+        }
+        if (status != AccountStatus.OPEN) {
+            return new AccountClosedException(accountId, "Счет закрыт");
+        }
+        return new InsufficientFundsException(accountId, "Недостаточно средств на счете");
+    }
+
+    private AccountStatus readAccountStatus(Session session, Long accountId) {
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(ACCOUNT_STATUS_SQL)) {
+                statement.setLong(1, accountId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? AccountStatus.valueOf(resultSet.getString("status")) : null;
+                }
+            }
+        });
+    }
+
+    // Балансы меняются в обход контекста сохранения, поэтому управляемую копию нужно перечитать
+    private void refreshIfManaged(Session session, Account account) {
+        if (session.contains(account)) {
+            session.refresh(account);
+        }
+    }
+
+    // Оба прохода идут через TransactionExecutor: взаимная блокировка и ошибка сериализации
+    // повторяют весь проход, а не превращаются в отказ отдельных переводов. Идентификаторы записей
+    // берутся на весь пакет заранее, по одному nextval на блок
+    private List<TransferResult> transferChunk(Session session, List<TransferCommand> chunk) {
+        try {
+            List<TransferResult> results = inTransaction(session, () -> {
+                Iterator<Long> ids = reserveIds(session, TransactionRecord.class, chunk.size()).iterator();
+                return session.doReturningWork(connection -> applyTransferChunk(connection, chunk, ids));
+            });
+            evictAccounts(session, collectAccountIds(chunk));
+            return results;
+        } catch (BankingOperationException | RuntimeException e) {
+            logger.warn("Ошибка пакетной записи, {} переводов будут выполнены поштучно", chunk.size(), e);
+        }
+
+        try {
+            List<TransferResult> results = inTransaction(session, () -> {
+                Iterator<Long> ids = reserveIds(session, TransactionRecord.class, chunk.size()).iterator();
+                return session.doReturningWork(connection -> applyTransfersWithSavepoints(connection, chunk, ids));
+            });
+            evictAccounts(session, collectAccountIds(chunk));
+            return results;
+        } catch (BankingOperationException e) {
+            logger.error("Пакет из {} переводов не выполнен из-за параллельных изменений счетов", chunk.size(), e);
+            return chunk.stream()
+                    .map(command -> TransferResult.failed(command, e.getMessage()))
+                    .toList();
+        } catch (RuntimeException e) {
+            logger.error("Ошибка при поштучном выполнении пакета из {} переводов", chunk.size(), e);
+            throw e;
+        }
+    }
+
+    // Все счета пакета блокируются одним запросом, окно переводов проходит взаимозачет в памяти,
+    // затем каждый затронутый счет обновляется один раз на итоговую разницу, а записи транзакций
+    // по каждому переводу уходят в БД JDBC-пакетом
+    private List<TransferResult> applyTransferChunk(Connection connection, List<TransferCommand> chunk,
+                                                    Iterator<Long> ids) throws SQLException {
+        Map<Long, Account> accounts = lockAccountRows(connection, collectAccountIds(chunk));
+        NettingEngine.NettingResult netting = nettingEngine.net(accounts, chunk);
+
+        applyBalanceDeltas(connection, netting.netDeltas());
+        List<Long> transactionIds = insertTransferRecords(connection,
+                netting.acceptedIndexes().stream().map(chunk::get).toList(), ids);
+
+        TransferResult[] results = new TransferResult[chunk.size()];
+        netting.rejections().forEach((index, reason) -> results[index] = TransferResult.failed(chunk.get(index), reason));
+        for (int i = 0; i < netting.acceptedIndexes().size(); i++) {
+            int index = netting.acceptedIndexes().get(i);
+            results[index] = TransferResult.completed(chunk.get(index), transactionIds.get(i));
+        }
+        logger.debug("Взаимозачет пакета: переводов={}, принято={}, обновлено счетов={}",
+                chunk.size(), netting.acceptedIndexes().size(), netting.netDeltas().size());
+        return Arrays.asList(results);
+    }
+
+    // Счета всего пакета блокируются заранее одним запросом в порядке id, как в пакетном проходе,
+    // поэтому встречный пакет или одиночный перевод не может взять те же строки в обратном порядке
+    private List<TransferResult> applyTransfersWithSavepoints(Connection connection, List<TransferCommand> chunk,
+                                                              Iterator<Long> ids) throws SQLException {
+        Map<Long, Account> lockedAccounts = lockAccountRows(connection, collectAccountIds(chunk));
+        List<TransferResult> results = new ArrayList<>(chunk.size());
+        for (TransferCommand command : chunk) {
+            Map<Long, Account> accounts = involvedAccounts(lockedAccounts, command);
+            Map<Long, BigDecimal> balancesBefore = new HashMap<>();
+            accounts.forEach((id, account) -> balancesBefore.put(id, account.getBalance()));
+
+            Savepoint savepoint = connection.setSavepoint();
+            try {
+                NettingEngine.NettingResult netting = nettingEngine.net(accounts, List.of(command));
+                if (!netting.isAccepted(0)) {
+                    connection.releaseSavepoint(savepoint);
+                    results.add(TransferResult.failed(command, netting.rejections().get(0)));
+                    continue;
+                }
+                applyBalanceDeltas(connection, netting.netDeltas());
+                Long transactionId = insertTransferRecords(connection, List.of(command), ids).getFirst();
+                connection.releaseSavepoint(savepoint);
+                results.add(TransferResult.completed(command, transactionId));
+            } catch (SQLException e) {
+                if (TransactionExecutor.isConflict(e)) {
+                    throw e;
+                }
+                connection.rollback(savepoint);
+                balancesBefore.forEach((id, balance) -> accounts.get(id).setBalance(balance));
+                logger.error("Ошибка перевода в пакете: fromAccountId={}, toAccountId={}, amount={}",
+                        command.fromAccountId(), command.toAccountId(), command.amount(), e);
+                results.add(TransferResult.failed(command, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    // Рабочие копии счетов одного перевода: взаимозачет меняет их балансы в общей карте пакета
+    private Map<Long, Account> involvedAccounts(Map<Long, Account> lockedAccounts, TransferCommand command) {
+        Map<Long, Account> accounts = new HashMap<>();
+        Stream.of(command.fromAccountId(), command.toAccountId())
+                .filter(Objects::nonNull)
+                .filter(lockedAccounts::containsKey)
+                .forEach(id -> accounts.put(id, lockedAccounts.get(id)));
+        return accounts;
+    }
+
+    private void applyTransferInMemory(Map<Long, Account> accounts, TransferCommand command)
+            throws BankingOperationException {
+        Account from = requireLockedAccount(accounts, command.fromAccountId());
+        Account to = requireLockedAccount(accounts, command.toAccountId());
+        validateTransfer(from, to, command.amount());
+        executeTransfer(from, to, command.amount());
+    }
+
+    // getId() у ленивой ссылки на счет не требует загрузки сущности
+    private TransferCommand toTransferCommand(TransactionRecord transactionRecord) {
+        return new TransferCommand(
+                transactionRecord.getFromAccount().getId(),
+                transactionRecord.getToAccount().getId(),
+                transactionRecord.getAmount());
+    }
+
+    private Account requireLockedAccount(Map<Long, Account> accounts, Long accountId)
+            throws AccountNotFoundException {
+        Account account = accounts.get(accountId);
+        if (account == null) {
+            throw new AccountNotFoundException(accountId);
+        }
+        return account;
+    }
+
+    private List<Long> collectAccountIds(List<TransferCommand> commands) {
+        return commands.stream()
+                .flatMap(command -> Stream.of(command.fromAccountId(), command.toAccountId()))
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .toList();
+    }
+
+    private Map<Long, Account> lockAccountRows(Connection connection, List<Long> accountIds) throws SQLException {
+        Map<Long, Account> accounts = new HashMap<>();
+        if (accountIds.isEmpty()) {
+            return accounts;
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(accountIds.size(), "?"));
+        try (PreparedStatement statement = connection.prepareStatement(LOCK_ACCOUNTS_SQL.formatted(placeholders))) {
+            for (int i = 0; i < accountIds.size(); i++) {
+                statement.setLong(i + 1, accountIds.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    Account account = Account.builder()
+                            .id(resultSet.getLong("id"))
+                            .balance(resultSet.getBigDecimal("balance"))
+                            .status(AccountStatus.valueOf(resultSet.getString("status")))
+                            .currency(Currency.valueOf(resultSet.getString("currency")))
+                            .build();
+                    accounts.put(account.getId(), account);
+                }
+            }
+        }
+        return accounts;
+    }
+
+    private void applyBalanceDeltas(Connection connection, Map<Long, BigDecimal> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(APPLY_BALANCE_DELTA_SQL)) {
+            for (Map.Entry<Long, BigDecimal> delta : deltas.entrySet()) {
+                statement.setBigDecimal(1, delta.getValue());
+                statement.setLong(2, delta.getKey());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private List<Long> insertTransferRecords(Connection connection, List<TransferCommand> commands, Iterator<Long> ids)
+            throws SQLException {
+        List<Long> transactionIds = new ArrayList<>(commands.size());
+        if (commands.isEmpty()) {
+            return transactionIds;
+        }
+
+        Timestamp now = Timestamp.from(Instant.now());
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_TRANSFER_SQL)) {
+            for (TransferCommand command : commands) {
+                Long transactionId = ids.next();
+                statement.setLong(1, transactionId);
+                statement.setBigDecimal(2, command.amount());
+                statement.setLong(3, command.fromAccountId());
+                statement.setLong(4, command.toAccountId());
+                statement.setTimestamp(5, now);
+                statement.setTimestamp(6, now);
+                statement.addBatch();
+                transactionIds.add(transactionId);
+            }
+            statement.executeBatch();
+        }
+        return transactionIds;
+    }
+
     private void recordWithdrawTransaction(Session session, Account fromAccount, BigDecimal amount) {
         TransactionRecord transactionRecord = createWithdrawTransactionRecord(fromAccount, amount);
         session.persist(transactionRecord);
@@ -160,9 +799,8 @@ public class TransactionService extends SessionService {
                 .build();
     }
 
-    private Account getValidAccount(Session session, Long accountId)
+    private Account getValidAccount(Account account, Long accountId)
             throws AccountNotFoundException, AccountClosedException {
-        Account account = session.get(Account.class, accountId, LockMode.PESSIMISTIC_WRITE);
         if (account == null) {
             throw new AccountNotFoundException(accountId);
         }
@@ -238,15 +876,4 @@ public class TransactionService extends SessionService {
                 .status(TransactionStatus.COMPLETED)
                 .build();
     }
-
-    private void rollbackSafely(Transaction transaction) {
-        if (transaction != null && transaction.isActive()) {
-            try {
-                transaction.rollback();
-                logger.info("Транзакция успешно откачена");
-            } catch (Exception ex) {
-                logger.error("Ошибка при откате транзакции", ex);
-            }
-        }
-    }
 }
\ No newline at end of file
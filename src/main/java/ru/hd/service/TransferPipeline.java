@@ -0,0 +1,249 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.jpa.TransactionRecord;
+import ru.hd.model.TransferResult;
+import ru.hd.util.AppProperties;
+import ru.hd.util.HibernateUtil;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class TransferPipeline implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(TransferPipeline.class);
+
+    private static final long POLL_INTERVAL_MS = 200;
+
+    private static volatile TransferPipeline instance;
+
+    private final SessionFactory sessionFactory;
+    private final TransactionService transactionService;
+    private final BlockingQueue<PendingTransfer> queue;
+    private final int workerCount;
+    private final int batchSize;
+    private final long shutdownTimeoutMs =
+            AppProperties.getLong("transfer.pipeline.shutdown-timeout-seconds", 10) * 1000;
+    private final List<Thread> workers = new ArrayList<>();
+    // Прием перевода (проверка running, запись PENDING и постановка в очередь) идет под чтением,
+    // остановка - под записью: close не начинается посреди submit, и перевод не попадает
+    // в очередь после того, как обработчики завершились
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+    private volatile boolean running;
+
+    private record PendingTransfer(Long transactionId, CompletableFuture<TransferResult> future) {
+    }
+
+    public TransferPipeline(SessionFactory sessionFactory) {
+        this(sessionFactory,
+                AppProperties.getInt("transfer.pipeline.queue-capacity", 10_000),
+                AppProperties.getInt("transfer.pipeline.workers", 4),
+                AppProperties.getInt("transfer.pipeline.batch-size", 100));
+    }
+
+    public TransferPipeline(SessionFactory sessionFactory, int queueCapacity, int workerCount, int batchSize) {
+        this.sessionFactory = sessionFactory;
+        this.transactionService = new TransactionService();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.workerCount = workerCount;
+        this.batchSize = batchSize;
+    }
+
+    public static TransferPipeline getInstance() {
+        if (instance == null) {
+            synchronized (TransferPipeline.class) {
+                if (instance == null) {
+                    TransferPipeline pipeline = new TransferPipeline(HibernateUtil.getSessionFactory());
+                    pipeline.start();
+                    instance = pipeline;
+                }
+            }
+        }
+        return instance;
+    }
+
+    // Для остановки приложения: конвейер закрывается, только если он был создан
+    public static void shutdownInstance() {
+        TransferPipeline pipeline = instance;
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(Thread.ofVirtual()
+                    .name("transfer-worker-" + i)
+                    .start(this::runWorker));
+        }
+        resumePendingTransfers();
+        logger.info("Конвейер переводов запущен: обработчиков={}, размер пакета={}", workerCount, batchSize);
+    }
+
+    public CompletableFuture<TransferResult> submit(Long fromAccountId, Long toAccountId, BigDecimal amount) {
+        acceptLock.readLock().lock();
+        try {
+            return accept(fromAccountId, toAccountId, amount);
+        } finally {
+            acceptLock.readLock().unlock();
+        }
+    }
+
+    private CompletableFuture<TransferResult> accept(Long fromAccountId, Long toAccountId, BigDecimal amount) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Конвейер переводов остановлен"));
+        }
+        if (queue.remainingCapacity() == 0) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Очередь переводов переполнена"));
+        }
+
+        TransactionRecord transactionRecord;
+        try (Session session = sessionFactory.openSession()) {
+            transactionRecord = transactionService.createPendingTransfer(session, fromAccountId, toAccountId, amount);
+        } catch (BankingOperationException | RuntimeException e) {
+            logger.error("Ошибка регистрации перевода: fromAccountId={}, toAccountId={}, amount={}",
+                    fromAccountId, toAccountId, amount, e);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<TransferResult> future = new CompletableFuture<>();
+        if (!queue.offer(new PendingTransfer(transactionRecord.getId(), future))) {
+            failTransfers(List.of(transactionRecord.getId()));
+            future.completeExceptionally(new RejectedExecutionException("Очередь переводов переполнена"));
+        }
+        return future;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    // Новые переводы больше не принимаются, обработчики доделывают очередь. Не успевшие за
+    // shutdown-timeout-seconds прерываются; их записи остаются в статусе PENDING и будут
+    // подхвачены при следующем запуске
+    @Override
+    public synchronized void close() {
+        acceptLock.writeLock().lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+        } finally {
+            acceptLock.writeLock().unlock();
+        }
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMs;
+        try {
+            for (Thread worker : workers) {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            workers.forEach(Thread::interrupt);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.clear();
+        List<PendingTransfer> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(pending -> pending.future()
+                .completeExceptionally(new RejectedExecutionException("Конвейер переводов остановлен")));
+        logger.info("Конвейер переводов остановлен, не обработано переводов: {}", remaining.size());
+    }
+
+    private void runWorker() {
+        List<PendingTransfer> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingTransfer first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                processBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Непредвиденная ошибка обработчика переводов", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void processBatch(List<PendingTransfer> batch) {
+        List<Long> transactionIds = batch.stream()
+                .map(PendingTransfer::transactionId)
+                .toList();
+
+        Map<Long, TransferResult> results;
+        try (Session session = sessionFactory.openSession()) {
+            results = transactionService.applyPendingTransfers(session, transactionIds);
+        } catch (BankingOperationException | RuntimeException e) {
+            logger.error("Ошибка применения пакета из {} переводов", batch.size(), e);
+            failTransfers(transactionIds);
+            batch.forEach(pending -> pending.future().completeExceptionally(e));
+            return;
+        }
+
+        for (PendingTransfer pending : batch) {
+            TransferResult result = results.get(pending.transactionId());
+            if (result != null) {
+                pending.future().complete(result);
+            } else {
+                pending.future().completeExceptionally(new IllegalStateException(
+                        "Перевод " + pending.transactionId() + " уже обработан"));
+            }
+        }
+        logger.debug("Пакет переводов применен: всего={}, обработано={}", batch.size(), results.size());
+    }
+
+    private void failTransfers(List<Long> transactionIds) {
+        try (Session session = sessionFactory.openSession()) {
+            transactionService.failPendingTransfers(session, transactionIds);
+        } catch (BankingOperationException | RuntimeException e) {
+            logger.error("Не удалось отметить переводы как неуспешные: {}", transactionIds, e);
+        }
+    }
+
+    // Переводы, зарегистрированные до перезапуска, применяются без ожидающего результата клиента
+    private void resumePendingTransfers() {
+        List<Long> transactionIds;
+        try (Session session = sessionFactory.openSession()) {
+            transactionIds = transactionService.getPendingTransferIds(session);
+        } catch (RuntimeException e) {
+            logger.error("Ошибка загрузки необработанных переводов", e);
+            return;
+        }
+
+        int resumed = 0;
+        for (Long transactionId : transactionIds) {
+            if (!queue.offer(new PendingTransfer(transactionId, new CompletableFuture<>()))) {
+                break;
+            }
+            resumed++;
+        }
+        if (resumed > 0) {
+            logger.info("Возобновлена обработка переводов: {} из {}", resumed, transactionIds.size());
+        }
+    }
+}
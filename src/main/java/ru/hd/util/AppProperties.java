@@ -0,0 +1,61 @@
+package ru.hd.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+// Настройки развертывания: banking.properties, переопределяются системным свойством
+// с тем же ключом или переменной окружения (transfer.mode -> TRANSFER_MODE)
+public class AppProperties {
+    private static final String RESOURCE_NAME = "banking.properties";
+    private static final Properties properties = load();
+
+    public static String get(String key, String defaultValue) {
+        String systemValue = System.getProperty(key);
+        if (systemValue != null) {
+            return systemValue;
+        }
+        String envValue = System.getenv(toEnvName(key));
+        if (envValue != null) {
+            return envValue;
+        }
+        return properties.getProperty(key, defaultValue);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value != null ? Long.parseLong(value.trim()) : defaultValue;
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+
+    public static <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        String value = get(key, null);
+        return value != null ? Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT)) : defaultValue;
+    }
+
+    private static String toEnvName(String key) {
+        return key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    private static Properties load() {
+        Properties loaded = new Properties();
+        try (InputStream input = AppProperties.class.getClassLoader().getResourceAsStream(RESOURCE_NAME)) {
+            if (input != null) {
+                loaded.load(input);
+            }
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError("Ошибка чтения " + RESOURCE_NAME + ": " + e.getMessage());
+        }
+        return loaded;
+    }
+}
@@ -1,21 +1,147 @@
 package ru.hd.util;
 
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
 import lombok.Getter;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
 
 public class HibernateUtil {
+    private static final Logger logger = LoggerFactory.getLogger(HibernateUtil.class);
+
+    // Имена регионов совпадают с указанными в @Cache и @NaturalIdCache сущностей
+    public static final String CLIENT_REGION = "client";
+    public static final String ACCOUNT_REGION = "account";
+    public static final String ACCOUNT_NATURAL_ID_REGION = "account-natural-id";
+    private static final List<String> CACHE_REGIONS = List.of(CLIENT_REGION, ACCOUNT_REGION, ACCOUNT_NATURAL_ID_REGION);
+
     @Getter
     private static final SessionFactory sessionFactory;
+    // null, если реплика не настроена (db.replica.url пуст)
+    private static final SessionFactory replicaSessionFactory;
+    private static final ReplicaLagMonitor replicaLagMonitor;
+    // За это время своя запись доходит до реплики, которую монитор считает пригодной
+    private static final long readYourWritesWindowMs;
 
     static {
         try {
-            sessionFactory = new Configuration()
-                    .configure("hibernate.cfg.xml")
-                    .buildSessionFactory();
+            Configuration configuration = new Configuration().configure("hibernate.cfg.xml");
+            if (AppProperties.getBoolean("cache.enabled", true)) {
+                configureSecondLevelCache(configuration);
+            }
+            sessionFactory = configuration.buildSessionFactory();
+
+            String replicaUrl = AppProperties.get("db.replica.url", "");
+            if (replicaUrl.isBlank()) {
+                replicaSessionFactory = null;
+                replicaLagMonitor = null;
+                readYourWritesWindowMs = 0;
+            } else {
+                long maxLagMs = AppProperties.getLong("db.replica.max-lag-ms", 2000);
+                long lagCheckIntervalMs = AppProperties.getLong("db.replica.lag-check-interval-ms", 1000);
+                replicaSessionFactory = buildReplicaSessionFactory(replicaUrl);
+                replicaLagMonitor = new ReplicaLagMonitor(replicaSessionFactory, maxLagMs, lagCheckIntervalMs);
+                readYourWritesWindowMs = maxLagMs + lagCheckIntervalMs;
+            }
         } catch (Throwable ex) {
             throw new ExceptionInInitializerError("Ошибка инициализации Hibernate: " + ex.getMessage());
         }
     }
 
-}
\ No newline at end of file
+    // Сессия для списков, счетчиков и отчетов: реплика, если она настроена и отстает не больше порога,
+    // иначе основная БД. Чтение после собственной записи и блокировки сюда не относятся
+    public static Session openReadOnlySession() {
+        return openReadOnlySession(0);
+    }
+
+    // lastWriteAtMs - время последней записи из того же экрана. Пока запись могла не дойти до реплики,
+    // перечитывание списка идет с основной БД, иначе новая строка пропала бы из грида
+    public static Session openReadOnlySession(long lastWriteAtMs) {
+        boolean recentWrite = System.currentTimeMillis() - lastWriteAtMs < readYourWritesWindowMs;
+        SessionFactory factory = replicaSessionFactory != null && !recentWrite && replicaLagMonitor.isReplicaUsable()
+                ? replicaSessionFactory
+                : sessionFactory;
+        Session session = factory.openSession();
+        session.setDefaultReadOnly(true);
+        return session;
+    }
+
+    // Схему на реплике не трогаем, кэш второго уровня остается только у основной фабрики
+    private static SessionFactory buildReplicaSessionFactory(String replicaUrl) {
+        Configuration configuration = new Configuration().configure("hibernate.cfg.xml");
+        configuration.setProperty("hibernate.connection.url", replicaUrl);
+        configuration.setProperty("hibernate.hbm2ddl.auto", "none");
+        String username = AppProperties.get("db.replica.username", "");
+        if (!username.isBlank()) {
+            configuration.setProperty("hibernate.connection.username", username);
+            configuration.setProperty("hibernate.connection.password", AppProperties.get("db.replica.password", ""));
+        }
+        return configuration.buildSessionFactory();
+    }
+
+    // Кэш второго уровня для справочных данных: клиенты, счета и поиск счета по номеру.
+    // Регионы создаются заранее с ограничением размера и временем жизни, отсутствующий регион - ошибка конфигурации
+    private static void configureSecondLevelCache(Configuration configuration) {
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName()).getCacheManager();
+        for (String region : CACHE_REGIONS) {
+            if (cacheManager.getCache(region) == null) {
+                cacheManager.createCache(region, regionConfiguration(region));
+            }
+        }
+
+        configuration.setProperty("hibernate.cache.use_second_level_cache", "true");
+        configuration.setProperty("hibernate.cache.use_query_cache", "false");
+        configuration.setProperty("hibernate.cache.region.factory_class", "jcache");
+        configuration.setProperty("hibernate.javax.cache.missing_cache_strategy", "fail");
+        configuration.setProperty("hibernate.generate_statistics", "true");
+        configuration.getProperties().put("hibernate.javax.cache.cache_manager", cacheManager);
+    }
+
+    private static CaffeineConfiguration<Object, Object> regionConfiguration(String region) {
+        CaffeineConfiguration<Object, Object> regionConfiguration = new CaffeineConfiguration<>();
+        regionConfiguration.setMaximumSize(OptionalLong.of(AppProperties.getLong("cache." + region + ".max-size", 10_000)));
+        regionConfiguration.setExpireAfterWrite(OptionalLong.of(TimeUnit.MINUTES.toNanos(
+                AppProperties.getLong("cache." + region + ".ttl-minutes", 30))));
+        regionConfiguration.setStatisticsEnabled(true);
+        return regionConfiguration;
+    }
+
+    // Попадания и промахи по регионам пишутся в лог периодически; 0 - не писать
+    public static void scheduleCacheStatisticsLog() {
+        long intervalMinutes = AppProperties.getLong("cache.statistics.log-interval-minutes", 15);
+        if (intervalMinutes <= 0 || !sessionFactory.getStatistics().isStatisticsEnabled()) {
+            return;
+        }
+        ScheduledJob.withFixedDelay("cache-statistics", intervalMinutes, intervalMinutes, TimeUnit.MINUTES,
+                HibernateUtil::logCacheStatistics);
+    }
+
+    public static void logCacheStatistics() {
+        Statistics statistics = sessionFactory.getStatistics();
+        if (!statistics.isStatisticsEnabled()) {
+            return;
+        }
+        for (String region : CACHE_REGIONS) {
+            CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(region);
+            if (regionStatistics != null) {
+                logger.info("Кэш {}: попаданий={}, промахов={}, записей={}, элементов в памяти={}",
+                        region,
+                        regionStatistics.getHitCount(),
+                        regionStatistics.getMissCount(),
+                        regionStatistics.getPutCount(),
+                        regionStatistics.getElementCountInMemory());
+            }
+        }
+    }
+}
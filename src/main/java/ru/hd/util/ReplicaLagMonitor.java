@@ -0,0 +1,71 @@
+package ru.hd.util;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Отставание реплики проверяется не чаще раза в интервал; пока одна сессия проверяет,
+// остальные пользуются предыдущим результатом
+public class ReplicaLagMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    // Если весь полученный WAL уже применен, реплика не отстает, даже когда на основной БД давно не было записей.
+    // Это верно только при подключенном приемнике WAL: без него прием останавливается, применение догоняет
+    // принятое, и устаревшая реплика выглядела бы актуальной. Статус приемника виден роли с pg_read_all_stats,
+    // без этой роли он NULL и реплика считается отстающей
+    private static final String REPLICA_LAG_SQL =
+            "SELECT CAST(CASE " +
+                    "WHEN NOT pg_is_in_recovery() THEN 0 " +
+                    "WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming') THEN CAST('Infinity' AS DOUBLE PRECISION) " +
+                    "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+                    "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) " +
+                    "END AS DOUBLE PRECISION)";
+
+    private final SessionFactory replicaSessionFactory;
+    private final long maxLagMs;
+    private final long checkIntervalMs;
+    private final AtomicBoolean checking = new AtomicBoolean();
+    private volatile long nextCheckAt;
+    private volatile boolean usable;
+
+    public ReplicaLagMonitor(SessionFactory replicaSessionFactory, long maxLagMs, long checkIntervalMs) {
+        this.replicaSessionFactory = replicaSessionFactory;
+        this.maxLagMs = maxLagMs;
+        this.checkIntervalMs = checkIntervalMs;
+    }
+
+    public boolean isReplicaUsable() {
+        if (System.currentTimeMillis() >= nextCheckAt && checking.compareAndSet(false, true)) {
+            try {
+                refresh();
+            } finally {
+                checking.set(false);
+            }
+        }
+        return usable;
+    }
+
+    private void refresh() {
+        boolean wasUsable = usable;
+        try (StatelessSession session = replicaSessionFactory.openStatelessSession()) {
+            double lagMs = session.createNativeQuery(REPLICA_LAG_SQL, Double.class).getSingleResult();
+            usable = lagMs <= maxLagMs;
+            if (wasUsable && Double.isInfinite(lagMs)) {
+                logger.warn("Реплика не получает WAL с основной БД, чтение переключено на основную БД");
+            } else if (wasUsable && !usable) {
+                logger.warn("Реплика отстает на {} мс (порог {} мс), чтение переключено на основную БД", (long) lagMs, maxLagMs);
+            } else if (!wasUsable && usable) {
+                logger.info("Реплика доступна, отставание {} мс: чтение списков и отчетов идет с реплики", (long) lagMs);
+            }
+        } catch (RuntimeException e) {
+            usable = false;
+            if (wasUsable) {
+                logger.warn("Реплика недоступна, чтение переключено на основную БД", e);
+            }
+        }
+        nextCheckAt = System.currentTimeMillis() + checkIntervalMs;
+    }
+}
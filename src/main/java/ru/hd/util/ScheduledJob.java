@@ -0,0 +1,65 @@
+package ru.hd.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Фоновая задача по расписанию на собственном демон-потоке. Исключение задачи пишется в лог и не
+// отменяет следующие запуски. Все запущенные задачи останавливаются через stopAll при завершении приложения
+public class ScheduledJob {
+    private static final Logger logger = LoggerFactory.getLogger(ScheduledJob.class);
+
+    private static final List<ScheduledJob> runningJobs = new CopyOnWriteArrayList<>();
+
+    @FunctionalInterface
+    public interface Job {
+        void run() throws Exception;
+    }
+
+    private final String name;
+    private final ScheduledExecutorService executor;
+
+    private ScheduledJob(String name) {
+        this.name = name;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Следующий запуск - через delay после окончания предыдущего, запуски не накладываются
+    public static ScheduledJob withFixedDelay(String name, long initialDelay, long delay, TimeUnit unit, Job job) {
+        ScheduledJob scheduledJob = new ScheduledJob(name);
+        scheduledJob.executor.scheduleWithFixedDelay(scheduledJob.wrap(job), initialDelay, delay, unit);
+        runningJobs.add(scheduledJob);
+        return scheduledJob;
+    }
+
+    // Прерывает выполняемый запуск; задачи сами проверяют прерывание между порциями работы
+    public void stop() {
+        runningJobs.remove(this);
+        executor.shutdownNow();
+    }
+
+    public static void stopAll() {
+        runningJobs.forEach(ScheduledJob::stop);
+    }
+
+    private Runnable wrap(Job job) {
+        return () -> {
+            try {
+                job.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Ошибка фоновой задачи {}", name, e);
+            }
+        };
+    }
+}
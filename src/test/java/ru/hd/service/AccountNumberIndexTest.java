@@ -0,0 +1,72 @@
+package ru.hd.service;
+
+import org.junit.jupiter.api.Test;
+import ru.hd.model.AccountStatus;
+import ru.hd.model.Currency;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccountNumberIndexTest {
+
+    @Test
+    void testPutAndGet() {
+        AccountNumberIndex index = new AccountNumberIndex();
+        index.put("40817810000000000001", 1L, AccountStatus.OPEN, Currency.RUB);
+        index.put("99999999999999999999", 2L, AccountStatus.CLOSED, Currency.USD);
+
+        assertEquals(new AccountNumberIndex.Entry(1L, AccountStatus.OPEN, Currency.RUB),
+                index.get("40817810000000000001"));
+        assertEquals(new AccountNumberIndex.Entry(2L, AccountStatus.CLOSED, Currency.USD),
+                index.get("99999999999999999999"));
+        assertNull(index.get("00000000000000000001"));
+        assertNull(index.get("not-a-number"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void testNumbersDifferingOnlyInLeadingDigitsAreDistinct() {
+        AccountNumberIndex index = new AccountNumberIndex();
+        index.put("00123456789012345678", 1L, AccountStatus.OPEN, Currency.RUB);
+        index.put("10123456789012345678", 2L, AccountStatus.OPEN, Currency.EUR);
+
+        assertEquals(1L, index.get("00123456789012345678").accountId());
+        assertEquals(2L, index.get("10123456789012345678").accountId());
+    }
+
+    @Test
+    void testPutUpdatesExistingEntry() {
+        AccountNumberIndex index = new AccountNumberIndex();
+        index.put("40817810000000000001", 1L, AccountStatus.OPEN, Currency.RUB);
+        index.put("40817810000000000001", 1L, AccountStatus.CLOSED, Currency.RUB);
+
+        assertEquals(AccountStatus.CLOSED, index.get("40817810000000000001").status());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void testGrowAndRemoveKeepsRemainingEntriesReachable() {
+        AccountNumberIndex index = new AccountNumberIndex();
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            index.put(accountNumber(i), i, AccountStatus.OPEN, Currency.RUB);
+        }
+        for (int i = 0; i < count; i += 2) {
+            index.remove(accountNumber(i));
+        }
+
+        assertEquals(count / 2, index.size());
+        for (int i = 0; i < count; i++) {
+            AccountNumberIndex.Entry entry = index.get(accountNumber(i));
+            if (i % 2 == 0) {
+                assertNull(entry);
+            } else {
+                assertNotNull(entry);
+                assertEquals(i, entry.accountId());
+            }
+        }
+    }
+
+    private String accountNumber(int i) {
+        return String.format("408178100%011d", i);
+    }
+}
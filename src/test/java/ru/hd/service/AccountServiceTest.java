@@ -83,6 +83,30 @@ class AccountServiceTest {
         }
     }
 
+    // Номер занят счетом, которого нет в индексе этого процесса (создан другим экземпляром приложения):
+    // проверка по индексу его пропускает, вставку отклоняет ограничение уникальности в БД
+    @Test
+    void testDuplicateAccountNumberMissingFromIndex() {
+        String accountNumber = TestDataGenerator.generateAccountNumber();
+        Client client;
+        try (Session session = getNewSession()) {
+            AccountNumberIndex.forSessionFactory(session.getSessionFactory());
+            client = createTestClient(session);
+            Account foreignAccount = createTestAccount(client, accountNumber);
+            session.persist(foreignAccount);
+            session.getTransaction().commit();
+        }
+
+        try (Session session = getNewSession()) {
+            session.getTransaction().commit();
+            Account duplicateAccount = createTestAccount(session.get(Client.class, client.getId()), accountNumber);
+
+            assertThrows(DuplicateAccountException.class,
+                    () -> accountService.createAccount(session, duplicateAccount));
+            assertFalse(session.getTransaction().isActive());
+        }
+    }
+
     @Test
     void testInvalidAccountNumber() {
         try (Session session = getNewSession()) {
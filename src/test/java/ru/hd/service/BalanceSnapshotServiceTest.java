@@ -0,0 +1,196 @@
+package ru.hd.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import org.hibernate.Session;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.jpa.Account;
+import ru.hd.jpa.AccountBalanceSnapshot;
+import ru.hd.jpa.Client;
+import ru.hd.model.AccountStatus;
+import ru.hd.model.Currency;
+import testutil.PostgresTestDatabase;
+import testutil.TestDataGenerator;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BalanceSnapshotServiceTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private TransactionService transactionService;
+    private BalanceSnapshotService snapshotService;
+
+    @BeforeAll
+    static void setupEntityManagerFactory() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("test-persistence-unit");
+    }
+
+    @AfterAll
+    static void closeEntityManagerFactory() {
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @BeforeEach
+    void setup() {
+        transactionService = new TransactionService();
+        snapshotService = new BalanceSnapshotService();
+    }
+
+    @Test
+    void testBalanceAsOfAppliesMovesAfterSnapshot() throws BankingOperationException {
+        try (Session session = getNewSession(entityManagerFactory)) {
+            Client client = createTestClient(session);
+            Account account = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account other = createTestAccount(client, BigDecimal.valueOf(1000));
+            session.persist(account);
+            session.persist(other);
+            session.flush();
+            LocalDate yesterday = LocalDate.now(BalanceSnapshotService.SNAPSHOT_ZONE).minusDays(1);
+            session.persist(new AccountBalanceSnapshot(account.getId(), yesterday, BigDecimal.valueOf(1000)));
+            session.getTransaction().commit();
+
+            Instant beforeTransfers = Instant.now();
+            transactionService.transfer(session, account.getId(), other.getId(), BigDecimal.valueOf(300));
+            transactionService.transfer(session, other.getId(), account.getId(), BigDecimal.valueOf(50));
+            Instant afterTransfers = Instant.now().plusSeconds(1);
+
+            assertEquals(1000, snapshotService.balanceAsOf(session, account.getId(),
+                    BalanceSnapshotService.endOfDay(yesterday)).intValue());
+            assertEquals(1000, snapshotService.balanceAsOf(session, account.getId(), beforeTransfers).intValue());
+            assertEquals(750, snapshotService.balanceAsOf(session, account.getId(), afterTransfers).intValue());
+        }
+    }
+
+    @Test
+    void testBalanceAsOfWithoutSnapshotCountsBackFromCurrentBalance() throws BankingOperationException {
+        try (Session session = getNewSession(entityManagerFactory)) {
+            Client client = createTestClient(session);
+            Account account = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account other = createTestAccount(client, BigDecimal.valueOf(1000));
+            session.persist(account);
+            session.persist(other);
+            session.getTransaction().commit();
+
+            // Начальный остаток счета не проведен через журнал, поэтому сумма истории дала бы 0
+            Instant beforeTransfers = Instant.now();
+            transactionService.transfer(session, account.getId(), other.getId(), BigDecimal.valueOf(300));
+            Instant afterTransfers = Instant.now().plusSeconds(1);
+
+            assertEquals(1000, snapshotService.balanceAsOf(session, account.getId(), beforeTransfers).intValue());
+            assertEquals(700, snapshotService.balanceAsOf(session, account.getId(), afterTransfers).intValue());
+        }
+    }
+
+    // Задание снимков написано на SQL PostgreSQL (generate_series, ON CONFLICT, FOR UPDATE SKIP LOCKED),
+    // которого нет в H2, поэтому оно проверяется на настоящей базе
+    @Nested
+    @EnabledIfSystemProperty(named = PostgresTestDatabase.URL_PROPERTY, matches = ".+")
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class OnPostgres {
+
+        private EntityManagerFactory postgresFactory;
+
+        @BeforeAll
+        void setupPostgres() throws Exception {
+            postgresFactory = PostgresTestDatabase.createEntityManagerFactory(Map.of());
+        }
+
+        @AfterAll
+        void closePostgres() {
+            if (postgresFactory != null) {
+                postgresFactory.close();
+            }
+        }
+
+        @Test
+        void testSnapshotJobWritesEndOfDayBalances() throws BankingOperationException {
+            LocalDate yesterday = LocalDate.now(BalanceSnapshotService.SNAPSHOT_ZONE).minusDays(1);
+            try (Session session = getNewSession(postgresFactory)) {
+                // База может остаться от прошлого запуска
+                session.createNativeMutationQuery("DELETE FROM balance_snapshot_chunks WHERE snapshot_date = :day")
+                        .setParameter("day", yesterday)
+                        .executeUpdate();
+                session.createNativeMutationQuery("DELETE FROM account_balance_snapshots WHERE snapshot_date = :day")
+                        .setParameter("day", yesterday)
+                        .executeUpdate();
+                Client client = createTestClient(session);
+                Account account = createTestAccount(client, BigDecimal.valueOf(1000));
+                Account other = createTestAccount(client, BigDecimal.valueOf(500));
+                session.persist(account);
+                session.persist(other);
+                session.getTransaction().commit();
+
+                // Перевод сегодняшний, то есть после конца вчерашнего дня: снимок должен его вычесть
+                transactionService.transfer(session, account.getId(), other.getId(), BigDecimal.valueOf(300));
+
+                assertTrue(snapshotService.isDaySettled(session, yesterday));
+                assertTrue(snapshotService.registerChunks(session, yesterday, 2) > 0);
+                // Повторная регистрация ничего не добавляет: сетка частей та же
+                assertEquals(0, snapshotService.registerChunks(session, yesterday, 2));
+
+                int processed = 0;
+                while (snapshotService.processNextChunk(session, yesterday)) {
+                    processed++;
+                }
+                assertTrue(processed > 0);
+                assertEquals(0, snapshotService.countPendingChunks(session, yesterday));
+
+                session.beginTransaction();
+                assertEquals(1000, snapshotOf(session, account.getId(), yesterday).intValue());
+                assertEquals(500, snapshotOf(session, other.getId(), yesterday).intValue());
+                session.getTransaction().commit();
+
+                // Остаток на сейчас считается уже от снимка
+                Instant now = Instant.now().plusSeconds(1);
+                assertEquals(700, snapshotService.balanceAsOf(session, account.getId(), now).intValue());
+                assertEquals(800, snapshotService.balanceAsOf(session, other.getId(), now).intValue());
+            }
+        }
+
+        private BigDecimal snapshotOf(Session session, Long accountId, LocalDate day) {
+            AccountBalanceSnapshot snapshot = session.find(AccountBalanceSnapshot.class,
+                    new AccountBalanceSnapshot.Key(accountId, day));
+            assertNotNull(snapshot);
+            return snapshot.getBalance();
+        }
+    }
+
+    private Client createTestClient(Session session) {
+        Client client = Client.builder()
+                .fullName("Тестовый Клиент")
+                .phoneNumber(TestDataGenerator.generateUniquePhone())
+                .inn(TestDataGenerator.generateUniqueINN())
+                .address("ул. Тестовая, 1")
+                .build();
+
+        session.persist(client);
+        session.flush();
+        return client;
+    }
+
+    private Account createTestAccount(Client client, BigDecimal balance) {
+        return Account.builder()
+                .accountNumber(TestDataGenerator.generateAccountNumber())
+                .bik(TestDataGenerator.generateBIK())
+                .balance(balance)
+                .currency(Currency.USD)
+                .status(AccountStatus.OPEN)
+                .client(client)
+                .build();
+    }
+
+    private static Session getNewSession(EntityManagerFactory factory) {
+        Session session = factory.createEntityManager().unwrap(Session.class);
+        session.beginTransaction();
+        return session;
+    }
+}
@@ -2,15 +2,33 @@ package ru.hd.service;
 
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.Persistence;
+import org.hibernate.Hibernate;
 import org.hibernate.PropertyValueException;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.hd.exception.*;
+import ru.hd.gui.data.KeysetPager;
 import ru.hd.jpa.Client;
+import ru.hd.jpa.PassportScan;
+import ru.hd.model.ClientSortField;
+import ru.hd.model.ScanStorageType;
+import ru.hd.model.SortCriteria;
+import ru.hd.model.SortKey;
 import testutil.TestDataGenerator;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -18,6 +36,12 @@ class ClientServiceTest {
 
     private static EntityManagerFactory entityManagerFactory;
     private ClientService clientService;
+    private PassportScanService passportScanService;
+    private ContentAddressedStore contentStore;
+    private PassportScanThumbnails thumbnails;
+
+    @TempDir
+    Path scanStoreDir;
 
     @BeforeAll
     static void setupEntityManagerFactory() {
@@ -31,9 +55,18 @@ class ClientServiceTest {
         }
     }
 
+    // Сканы пишутся во временный каталог, а не в каталог хранилища из banking.properties
     @BeforeEach
     void setup() {
-        clientService = new ClientService();
+        contentStore = new ContentAddressedStore(scanStoreDir);
+        thumbnails = new PassportScanThumbnails(contentStore, 1, 1024 * 1024);
+        passportScanService = new PassportScanService(ScanStorageType.FILESYSTEM, contentStore, thumbnails);
+        clientService = new ClientService(passportScanService);
+    }
+
+    @AfterEach
+    void shutdownThumbnails() {
+        thumbnails.shutdown();
     }
 
     private Session getNewSession() {
@@ -50,7 +83,7 @@ class ClientServiceTest {
                     .address("ул. Тестовая, 1")
                     .build();
 
-            Client createdClient = clientService.createClient(session, client, new byte[]{});
+            Client createdClient = clientService.createClient(session, client, null);
 
             assertNotNull(createdClient.getId());
             assertEquals(client.getFullName(), createdClient.getFullName());
@@ -74,7 +107,7 @@ class ClientServiceTest {
                     .address("ул. Тестовая, 1")
                     .build();
 
-            clientService.createClient(session, client1, new byte[]{});
+            clientService.createClient(session, client1, null);
 
             Client client2 = Client.builder()
                     .fullName("Петр Петров")
@@ -84,7 +117,7 @@ class ClientServiceTest {
                     .build();
 
             assertThrows(InvalidPhoneNumberException.class,
-                    () -> clientService.createClient(session, client2, new byte[]{}));
+                    () -> clientService.createClient(session, client2, null));
         }
     }
 
@@ -99,7 +132,7 @@ class ClientServiceTest {
                     .build();
 
             assertThrows(InvalidPhoneNumberException.class,
-                    () -> clientService.createClient(session, client, new byte[]{}));
+                    () -> clientService.createClient(session, client, null));
         }
     }
 
@@ -117,7 +150,7 @@ class ClientServiceTest {
                     .address("ул. Тестовая, 1")
                     .build();
 
-            clientService.createClient(session, client1, new byte[]{});
+            clientService.createClient(session, client1, null);
 
             Client client2 = Client.builder()
                     .fullName("Петр Петров")
@@ -127,7 +160,7 @@ class ClientServiceTest {
                     .build();
 
             assertThrows(InvalidTaxIdentifierException.class,
-                    () -> clientService.createClient(session, client2, new byte[]{}));
+                    () -> clientService.createClient(session, client2, null));
         }
     }
 
@@ -142,7 +175,7 @@ class ClientServiceTest {
                     .build();
 
             assertThrows(InvalidTaxIdentifierException.class,
-                    () -> clientService.createClient(session, client, new byte[]{}));
+                    () -> clientService.createClient(session, client, null));
         }
     }
 
@@ -157,7 +190,7 @@ class ClientServiceTest {
                     .build();
 
             assertThrows(PropertyValueException.class,
-                    () -> clientService.createClient(session, client, new byte[]{}));
+                    () -> clientService.createClient(session, client, null));
         }
     }
 
@@ -172,7 +205,7 @@ class ClientServiceTest {
                     .build();
 
             assertThrows(InvalidPhoneNumberException.class,
-                    () -> clientService.createClient(session, client, new byte[]{}));
+                    () -> clientService.createClient(session, client, null));
         }
     }
 
@@ -187,7 +220,7 @@ class ClientServiceTest {
                     .build();
 
             assertThrows(InvalidTaxIdentifierException.class,
-                    () -> clientService.createClient(session, client, new byte[]{}));
+                    () -> clientService.createClient(session, client, null));
         }
     }
 
@@ -202,7 +235,7 @@ class ClientServiceTest {
                     .build();
 
             assertThrows(PropertyValueException.class,
-                    () -> clientService.createClient(session, client, new byte[]{}));
+                    () -> clientService.createClient(session, client, null));
         }
     }
 
@@ -218,7 +251,7 @@ class ClientServiceTest {
             updatedClient.setInn(TestDataGenerator.generateUniqueINN());
             updatedClient.setAddress("ул. Обновленная, 1");
 
-            Client result = clientService.updateClientWithPassportScan(session, updatedClient, new byte[]{});
+            Client result = clientService.updateClientWithPassportScan(session, updatedClient, null);
 
             assertNotNull(result);
             assertEquals(updatedClient.getFullName(), result.getFullName());
@@ -242,7 +275,7 @@ class ClientServiceTest {
             updatedClient.setAddress("ул. Обновленная, 1");
 
             assertThrows(InvalidPhoneNumberException.class,
-                    () -> clientService.updateClientWithPassportScan(session, updatedClient, new byte[]{}));
+                    () -> clientService.updateClientWithPassportScan(session, updatedClient, null));
         }
     }
 
@@ -260,7 +293,7 @@ class ClientServiceTest {
             updatedClient.setAddress("ул. Обновленная, 1");
 
             assertThrows(InvalidTaxIdentifierException.class,
-                    () -> clientService.updateClientWithPassportScan(session, updatedClient, new byte[]{}));
+                    () -> clientService.updateClientWithPassportScan(session, updatedClient, null));
         }
     }
 
@@ -277,7 +310,7 @@ class ClientServiceTest {
             updatedClient.setAddress("ул. Обновленная, 1");
 
             assertThrows(InvalidPhoneNumberException.class,
-                    () -> clientService.updateClientWithPassportScan(session, updatedClient, new byte[]{}));
+                    () -> clientService.updateClientWithPassportScan(session, updatedClient, null));
         }
     }
 
@@ -294,7 +327,179 @@ class ClientServiceTest {
             updatedClient.setAddress("ул. Обновленная, 1");
 
             assertThrows(InvalidTaxIdentifierException.class,
-                    () -> clientService.updateClientWithPassportScan(session, updatedClient, new byte[]{}));
+                    () -> clientService.updateClientWithPassportScan(session, updatedClient, null));
+        }
+    }
+
+    @Test
+    void testKeysetPagingContinuesAfterLastSeenId() throws BankingOperationException {
+        try (Session session = getNewSession()) {
+            Client first = createTestClient(session);
+            Client second = createTestClient(session);
+            Client third = createTestClient(session);
+
+            List<Client> afterFirst = clientService.getClientsAfter(session, first.getId(), 0, 2);
+            List<Client> skipped = clientService.getClientsAfter(session, first.getId(), 1, 1);
+
+            assertEquals(List.of(second.getId(), third.getId()), afterFirst.stream().map(Client::getId).toList());
+            assertEquals(third.getId(), skipped.getFirst().getId());
+            assertTrue(clientService.getClientsAfter(session, third.getId(), 0, 10).isEmpty());
+        }
+    }
+
+    @Test
+    void testSearchIgnoresTooShortTerms() {
+        // Короткие строки не доходят до БД: триграммный индекс для них не работает
+        try (Session session = getNewSession()) {
+            assertTrue(clientService.search(session, " Ив ", 0, 10).isEmpty());
+            assertTrue(clientService.search(session, "+7", 0, 10).isEmpty());
+            assertTrue(clientService.search(session, null, 0, 10).isEmpty());
+            assertEquals(0, clientService.countSearchResults(session, "  "));
+        }
+    }
+
+    @Test
+    void testDatabaseScanIsStoredAndReadInChunks() throws IOException {
+        // Размер больше нескольких частей чтения из BYTEA и не кратен их размеру
+        byte[] scan = new byte[DatabaseScanStorage.CHUNK_SIZE * 2 + 12_345];
+        ThreadLocalRandom.current().nextBytes(scan);
+        Path scanFile = Files.write(scanStoreDir.resolve("upload.png"), scan);
+        DatabaseScanStorage storage = new DatabaseScanStorage();
+        try (Session session = getNewSession()) {
+            session.beginTransaction();
+            Long scanId = storage.store(session, scanFile);
+            session.getTransaction().commit();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            long copied = storage.copyTo(session, scanId, output);
+
+            assertEquals(scan.length, copied);
+            assertArrayEquals(scan, output.toByteArray());
+        }
+    }
+
+    @Test
+    void testPassportScanIsStoredInContentStore() throws BankingOperationException, IOException {
+        byte[] scan = new byte[100_000];
+        ThreadLocalRandom.current().nextBytes(scan);
+        Path scanFile = Files.write(scanStoreDir.resolve("upload.png"), scan);
+        try (Session session = getNewSession()) {
+            Client client = Client.builder()
+                    .fullName("Иван Иванов")
+                    .phoneNumber(TestDataGenerator.generateUniquePhone())
+                    .inn(TestDataGenerator.generateUniqueINN())
+                    .address("ул. Тестовая, 1")
+                    .build();
+            clientService.createClient(session, client, scanFile);
+
+            Long scanId = clientService.getPassportScanId(session, client.getId());
+            PassportScan stored = session.get(PassportScan.class, scanId);
+            assertTrue(contentStore.contains(stored.getContentHash()));
+            assertEquals(scan.length, stored.getSizeBytes());
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            long copied = passportScanService.copyTo(session, scanId, output);
+
+            assertEquals(scan.length, copied);
+            assertArrayEquals(scan, output.toByteArray());
+        }
+    }
+
+    // Перенос идет по курсору id: каждый пакет начинается после последнего просмотренного скана
+    @Test
+    void testMigrationAdvancesPastProcessedScans() throws BankingOperationException, IOException {
+        Path scanFile = Files.write(scanStoreDir.resolve("upload.png"), new byte[]{1, 2, 3});
+        DatabaseScanStorage storage = new DatabaseScanStorage();
+        try (Session session = getNewSession()) {
+            session.beginTransaction();
+            Long firstScanId = storage.store(session, scanFile);
+            Long secondScanId = storage.store(session, scanFile);
+            session.getTransaction().commit();
+
+            assertEquals(firstScanId, passportScanService.migrateBatch(session, firstScanId - 1, 1));
+            assertEquals(secondScanId, passportScanService.migrateBatch(session, firstScanId, 1));
+            assertNull(passportScanService.migrateBatch(session, secondScanId, 1));
+
+            session.clear();
+            PassportScan migrated = session.get(PassportScan.class, secondScanId);
+            assertTrue(contentStore.contains(migrated.getContentHash()));
+        }
+    }
+
+    // Файл без ссылающейся строки удаляется, файл скана клиента остается
+    @Test
+    void testSweepDeletesOnlyUnreferencedFiles() throws BankingOperationException, IOException {
+        Path scanFile = Files.write(scanStoreDir.resolve("upload.png"), new byte[]{4, 5, 6});
+        try (Session session = getNewSession()) {
+            Client client = Client.builder()
+                    .fullName("Иван Иванов")
+                    .phoneNumber(TestDataGenerator.generateUniquePhone())
+                    .inn(TestDataGenerator.generateUniqueINN())
+                    .address("ул. Тестовая, 1")
+                    .build();
+            clientService.createClient(session, client, scanFile);
+            String referencedHash = session.get(PassportScan.class,
+                    clientService.getPassportScanId(session, client.getId())).getContentHash();
+            String orphanHash = contentStore.put(output -> output.write(new byte[]{7, 8, 9})).hash();
+
+            assertEquals(1, passportScanService.sweepUnreferenced(session, Instant.now().plusSeconds(1)));
+
+            assertTrue(contentStore.contains(referencedHash));
+            assertFalse(contentStore.contains(orphanHash));
+        }
+    }
+
+    // Выборка страницы грида клиентов тем же KeysetPager и запросом, что в ClientsView: один запрос,
+    // без догрузки сканов и счетов. Число строк грид берет из оценки по каталогу PostgreSQL
+    // (RowCounter), это еще один запрос, на H2 он не воспроизводится. Счета всех клиентов
+    // страницы догружаются одним запросом, байты скана - только по обращению
+    @Test
+    void testClientsGridPageFetchStatementCount() throws BankingOperationException, IOException {
+        Long scanId;
+        Path scanFile = Files.write(scanStoreDir.resolve("upload.png"), new byte[]{1, 2, 3});
+        try (Session session = getNewSession()) {
+            for (int i = 0; i < 3; i++) {
+                createTestClient(session);
+            }
+            Client client = Client.builder()
+                    .fullName("Иван Иванов")
+                    .phoneNumber(TestDataGenerator.generateUniquePhone())
+                    .inn(TestDataGenerator.generateUniqueINN())
+                    .address("ул. Тестовая, 1")
+                    .build();
+            clientService.createClient(session, client, scanFile);
+            scanId = clientService.getPassportScanId(session, client.getId());
+        }
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try (Session session = getNewSession()) {
+            statistics.clear();
+            KeysetPager<Client, SortKey> pager = new KeysetPager<>(
+                    c -> ClientService.sortKeyOf(c, ClientSortField.ID),
+                    (s, after, skip, limit) -> clientService.getClientsAfter(
+                            s, SortCriteria.ascending(ClientSortField.ID), after, skip, limit));
+
+            List<Client> page = pager.fetch(session, 0, 50);
+            // Колонки грида и id скана для миниатюры не требуют запросов
+            for (Client loaded : page) {
+                assertNotNull(loaded.getFullName());
+                if (loaded.getPassportScan() != null) {
+                    assertNotNull(loaded.getPassportScan().getId());
+                }
+            }
+            assertFalse(page.isEmpty());
+            assertEquals(1, statistics.getPrepareStatementCount());
+
+            page.forEach(loaded -> loaded.getAccounts().size());
+            assertEquals(2, statistics.getPrepareStatementCount());
+
+            PassportScan scan = session.get(PassportScan.class, scanId);
+            assertFalse(Hibernate.isPropertyInitialized(scan, "scan"));
+            assertFalse(Hibernate.isPropertyInitialized(scan, "client"));
+            assertEquals(3, statistics.getPrepareStatementCount());
+        } finally {
+            statistics.setStatisticsEnabled(false);
         }
     }
 
@@ -306,6 +511,6 @@ class ClientServiceTest {
                 .address("ул. Тестовая, 1")
                 .build();
 
-        return clientService.createClient(session, client, new byte[]{});
+        return clientService.createClient(session, client, null);
     }
 }
\ No newline at end of file
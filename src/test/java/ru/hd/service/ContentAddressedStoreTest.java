@@ -0,0 +1,77 @@
+package ru.hd.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentAddressedStoreTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testSameContentIsStoredOnce() throws IOException {
+        ContentAddressedStore store = new ContentAddressedStore(root);
+        byte[] content = "скан паспорта".getBytes(StandardCharsets.UTF_8);
+
+        ContentAddressedStore.StoredContent first = store.put(output -> output.write(content));
+        ContentAddressedStore.StoredContent second = store.put(output -> output.write(content));
+
+        assertEquals(first, second);
+        assertEquals(content.length, first.size());
+        assertEquals(first.hash(), store.pathFor(first.hash()).getFileName().toString());
+        try (Stream<Path> files = Files.walk(root)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void testTransferReturnsStoredContent() throws IOException {
+        ContentAddressedStore store = new ContentAddressedStore(root);
+        Path upload = Files.writeString(root.resolve("upload.png"), "содержимое файла");
+
+        ContentAddressedStore.StoredContent stored = store.put(upload);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long transferred = store.transferTo(stored.hash(), output);
+
+        assertEquals(stored.size(), transferred);
+        assertArrayEquals(Files.readAllBytes(upload), output.toByteArray());
+        // Хэш SHA-256 пустого содержимого известен заранее
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                store.put(_ -> { }).hash());
+    }
+
+    @Test
+    void testDeleteKeepsFilesModifiedAfterCutoff() throws IOException {
+        ContentAddressedStore store = new ContentAddressedStore(root);
+        Instant cutoff = Instant.now().minusSeconds(60);
+        ContentAddressedStore.StoredContent stored = store.put(output -> output.write(1));
+        store.putDerived(stored.hash(), "preview.jpg", output -> output.write(2));
+
+        assertFalse(store.deleteIfModifiedBefore(stored.hash(), cutoff));
+        assertTrue(store.contains(stored.hash()));
+
+        Files.setLastModifiedTime(store.pathFor(stored.hash()), FileTime.from(cutoff.minusSeconds(60)));
+        assertTrue(store.deleteIfModifiedBefore(stored.hash(), cutoff));
+        assertFalse(store.contains(stored.hash()));
+        assertFalse(store.containsDerived(stored.hash(), "preview.jpg"));
+    }
+
+    @Test
+    void testRejectsMalformedHash() {
+        ContentAddressedStore store = new ContentAddressedStore(root);
+
+        assertThrows(IllegalArgumentException.class, () -> store.transferTo("../../etc/passwd", new ByteArrayOutputStream()));
+        assertFalse(store.contains("0".repeat(64)));
+    }
+}
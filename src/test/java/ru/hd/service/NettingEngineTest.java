@@ -0,0 +1,102 @@
+package ru.hd.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.hd.exception.InsufficientFundsException;
+import ru.hd.jpa.Account;
+import ru.hd.model.AccountStatus;
+import ru.hd.model.Currency;
+import ru.hd.model.TransferCommand;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NettingEngineTest {
+
+    private NettingEngine nettingEngine;
+
+    @BeforeEach
+    void setup() {
+        nettingEngine = new NettingEngine((from, to, amount) -> {
+            if (from.getBalance().compareTo(amount) < 0) {
+                throw new InsufficientFundsException(from.getId(), "Недостаточно средств на счете отправителя");
+            }
+        });
+    }
+
+    @Test
+    void testCycleNetsToNoBalanceUpdates() {
+        Map<Long, Account> accounts = accounts(100, 0, 0);
+
+        NettingEngine.NettingResult result = nettingEngine.net(accounts, List.of(
+                transfer(1, 2, 100),
+                transfer(2, 3, 100),
+                transfer(3, 1, 100)
+        ));
+
+        assertEquals(List.of(0, 1, 2), result.acceptedIndexes());
+        assertTrue(result.rejections().isEmpty());
+        assertTrue(result.netDeltas().isEmpty());
+    }
+
+    @Test
+    void testOpposingTransfersProduceSingleDeltaPerAccount() {
+        Map<Long, Account> accounts = accounts(1000, 500);
+
+        NettingEngine.NettingResult result = nettingEngine.net(accounts, List.of(
+                transfer(1, 2, 300),
+                transfer(2, 1, 200),
+                transfer(1, 2, 50)
+        ));
+
+        assertEquals(3, result.acceptedIndexes().size());
+        assertEquals(Map.of(1L, BigDecimal.valueOf(-150), 2L, BigDecimal.valueOf(150)), result.netDeltas());
+    }
+
+    @Test
+    void testTransferIsRejectedWhenBalanceIsInsufficientAtItsPosition() {
+        Map<Long, Account> accounts = accounts(0, 100, 0);
+
+        // Итог окна был бы неотрицательным, но первый перевод выполняется раньше поступления средств
+        NettingEngine.NettingResult result = nettingEngine.net(accounts, List.of(
+                transfer(1, 3, 50),
+                transfer(2, 1, 100)
+        ));
+
+        assertFalse(result.isAccepted(0));
+        assertTrue(result.isAccepted(1));
+        assertEquals(Map.of(1L, BigDecimal.valueOf(100), 2L, BigDecimal.valueOf(-100)), result.netDeltas());
+    }
+
+    @Test
+    void testUnknownAccountIsRejected() {
+        Map<Long, Account> accounts = accounts(100);
+
+        NettingEngine.NettingResult result = nettingEngine.net(accounts, List.of(transfer(1, 42, 10)));
+
+        assertFalse(result.isAccepted(0));
+        assertTrue(result.netDeltas().isEmpty());
+    }
+
+    private Map<Long, Account> accounts(long... balances) {
+        Map<Long, Account> accounts = new HashMap<>();
+        for (int i = 0; i < balances.length; i++) {
+            long id = i + 1;
+            accounts.put(id, Account.builder()
+                    .id(id)
+                    .balance(BigDecimal.valueOf(balances[i]))
+                    .status(AccountStatus.OPEN)
+                    .currency(Currency.RUB)
+                    .build());
+        }
+        return accounts;
+    }
+
+    private TransferCommand transfer(long from, long to, long amount) {
+        return new TransferCommand(from, to, BigDecimal.valueOf(amount));
+    }
+}
@@ -0,0 +1,47 @@
+package ru.hd.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.hd.model.ScanRendition;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PassportScanThumbnailsTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testRenditionIsScaledAndStoredNextToScan() throws IOException {
+        ContentAddressedStore store = new ContentAddressedStore(root);
+        PassportScanThumbnails thumbnails = new PassportScanThumbnails(store, 1, 1024 * 1024);
+        String hash = store.put(output -> ImageIO.write(
+                new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_ARGB), "png", output)).hash();
+
+        byte[] thumbnail = thumbnails.get(hash, ScanRendition.THUMBNAIL);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        assertEquals(ScanRendition.THUMBNAIL.getMaxSide(), image.getWidth());
+        assertEquals(ScanRendition.THUMBNAIL.getMaxSide() / 2, image.getHeight());
+        assertArrayEquals(thumbnail, store.readDerived(hash, ScanRendition.THUMBNAIL.getFileName()));
+        thumbnails.shutdown();
+    }
+
+    @Test
+    void testNonImageHasNoRendition() throws IOException {
+        ContentAddressedStore store = new ContentAddressedStore(root);
+        PassportScanThumbnails thumbnails = new PassportScanThumbnails(store, 1, 1024 * 1024);
+        String hash = store.put(output -> output.write("не изображение".getBytes(StandardCharsets.UTF_8))).hash();
+
+        assertNull(thumbnails.get(hash, ScanRendition.PREVIEW));
+        assertFalse(store.containsDerived(hash, ScanRendition.PREVIEW.getFileName()));
+        thumbnails.shutdown();
+    }
+}
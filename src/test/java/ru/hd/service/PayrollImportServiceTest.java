@@ -0,0 +1,47 @@
+package ru.hd.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayrollImportServiceTest {
+
+    private static final String ACCOUNT_NUMBER = "40817810099910004312";
+
+    @Test
+    void testParseCommaSeparatedLine() {
+        PayrollImportService.PayrollLine line = PayrollImportService.parseLine(ACCOUNT_NUMBER + ",1500.50");
+
+        assertEquals(ACCOUNT_NUMBER, line.accountNumber());
+        assertEquals(new BigDecimal("1500.50"), line.amount());
+    }
+
+    @Test
+    void testParseSemicolonSeparatedLineWithDecimalComma() {
+        PayrollImportService.PayrollLine line = PayrollImportService.parseLine(" " + ACCOUNT_NUMBER + " ; 1500,5 ");
+
+        assertEquals(ACCOUNT_NUMBER, line.accountNumber());
+        assertEquals(new BigDecimal("1500.5"), line.amount());
+    }
+
+    @Test
+    void testRejectInvalidLines() {
+        assertAll(
+                "Проверка отклонения неверных строк",
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> PayrollImportService.parseLine("account_number,amount")),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> PayrollImportService.parseLine(ACCOUNT_NUMBER)),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> PayrollImportService.parseLine("12345,100")),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> PayrollImportService.parseLine(ACCOUNT_NUMBER + ",-100")),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> PayrollImportService.parseLine(ACCOUNT_NUMBER + ",100.001")),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> PayrollImportService.parseLine(ACCOUNT_NUMBER + ",99999999999999"))
+        );
+    }
+}
@@ -0,0 +1,100 @@
+package ru.hd.service;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.exception.InvalidAmountException;
+import ru.hd.exception.TransactionConflictException;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class TransactionExecutorTest {
+
+    @Mock
+    private Session session;
+    @Mock
+    private Transaction transaction;
+
+    private TransactionExecutor transactionExecutor;
+
+    @BeforeEach
+    void setup() {
+        when(session.beginTransaction()).thenReturn(transaction);
+        when(transaction.isActive()).thenReturn(true);
+        transactionExecutor = new TransactionExecutor(3, 1, 1);
+    }
+
+    @Test
+    void testRetryOnDeadlock() throws BankingOperationException {
+        AtomicInteger calls = new AtomicInteger();
+        long retriesBefore = TransactionExecutor.getMetrics().getRetries();
+        long deadlocksBefore = TransactionExecutor.getMetrics().getDeadlocks();
+
+        String result = transactionExecutor.execute(session, () -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new RuntimeException(new SQLException("deadlock detected", "40P01"));
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(2, calls.get());
+        verify(transaction, times(1)).rollback();
+        verify(transaction, times(1)).commit();
+        verify(session, times(1)).clear();
+        assertEquals(retriesBefore + 1, TransactionExecutor.getMetrics().getRetries());
+        assertEquals(deadlocksBefore + 1, TransactionExecutor.getMetrics().getDeadlocks());
+    }
+
+    @Test
+    void testRetryOnSerializationFailureUntilExhausted() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(TransactionConflictException.class, () -> transactionExecutor.execute(session, () -> {
+            calls.incrementAndGet();
+            throw new RuntimeException(new SQLException("could not serialize access", "40001"));
+        }));
+
+        assertEquals(3, calls.get());
+        verify(transaction, never()).commit();
+    }
+
+    @Test
+    void testNoRetryOnOtherErrors() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> transactionExecutor.execute(session, () -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("unexpected");
+        }));
+
+        assertEquals(1, calls.get());
+        verify(transaction).rollback();
+    }
+
+    @Test
+    void testNoRetryOnBusinessErrors() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(InvalidAmountException.class, () -> transactionExecutor.execute(session, () -> {
+            calls.incrementAndGet();
+            throw new InvalidAmountException("Неверная сумма");
+        }));
+
+        assertEquals(1, calls.get());
+        verify(session, never()).clear();
+    }
+}
@@ -0,0 +1,107 @@
+package ru.hd.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import org.hibernate.Session;
+import org.junit.jupiter.api.*;
+import ru.hd.exception.BankingOperationException;
+import ru.hd.jpa.Account;
+import ru.hd.jpa.Client;
+import ru.hd.model.AccountStatus;
+import ru.hd.model.Currency;
+import ru.hd.model.TransactionFilter;
+import testutil.TestDataGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionExportServiceTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private TransactionService transactionService;
+    private TransactionExportService exportService;
+
+    @BeforeAll
+    static void setupEntityManagerFactory() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("test-persistence-unit");
+    }
+
+    @AfterAll
+    static void closeEntityManagerFactory() {
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @BeforeEach
+    void setup() {
+        transactionService = new TransactionService();
+        exportService = new TransactionExportService();
+    }
+
+    @Test
+    void testFilteredExportWritesMatchingRows() throws BankingOperationException {
+        try (Session session = entityManagerFactory.createEntityManager().unwrap(Session.class)) {
+            session.beginTransaction();
+            Client client = Client.builder()
+                    .fullName("Тестовый Клиент")
+                    .phoneNumber(TestDataGenerator.generateUniquePhone())
+                    .inn(TestDataGenerator.generateUniqueINN())
+                    .address("ул. Тестовая, 1")
+                    .build();
+            session.persist(client);
+            Account account = createTestAccount(client);
+            Account other = createTestAccount(client);
+            session.persist(account);
+            session.persist(other);
+            session.getTransaction().commit();
+
+            Instant from = Instant.now().minusSeconds(1);
+            transactionService.depositToAccount(session, account, BigDecimal.valueOf(300));
+            transactionService.depositToAccount(session, account, BigDecimal.valueOf(50));
+            transactionService.withdrawFromAccount(session, account, BigDecimal.valueOf(200));
+            transactionService.depositToAccount(session, other, BigDecimal.valueOf(500));
+
+            // Счет и нижняя граница суммы: мелкое пополнение и операция по другому счету не попадают.
+            // Фильтры по типу и статусу приводят к типам-перечислениям PostgreSQL, на H2 не проверяются
+            TransactionFilter filter = new TransactionFilter(from, Instant.now().plusSeconds(1),
+                    account.getId(), null, null, BigDecimal.valueOf(100), null);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            long rows = exportService.exportCsv(session, filter, output);
+
+            List<String> lines = output.toString(StandardCharsets.UTF_8).lines().toList();
+            assertEquals(2, rows);
+            assertEquals(3, lines.size());
+            assertEquals("id;created_at;type;status;amount;from_account;to_account", lines.get(0));
+            assertRow(lines.get(1), "DEPOSIT", "300.00", "", account.getAccountNumber());
+            assertRow(lines.get(2), "WITHDRAWAL", "200.00", account.getAccountNumber(), "");
+        }
+    }
+
+    // Время создания и id зависят от запуска, поэтому сверяются остальные поля
+    private void assertRow(String line, String type, String amount, String fromAccount, String toAccount) {
+        String[] fields = line.split(";", -1);
+        assertEquals(7, fields.length);
+        assertEquals(type, fields[2]);
+        assertEquals("COMPLETED", fields[3]);
+        assertEquals(amount, fields[4]);
+        assertEquals(fromAccount, fields[5]);
+        assertEquals(toAccount, fields[6]);
+    }
+
+    private Account createTestAccount(Client client) {
+        return Account.builder()
+                .accountNumber(TestDataGenerator.generateAccountNumber())
+                .bik(TestDataGenerator.generateBIK())
+                .balance(BigDecimal.valueOf(1000))
+                .currency(Currency.USD)
+                .status(AccountStatus.OPEN)
+                .client(client)
+                .build();
+    }
+}
@@ -0,0 +1,158 @@
+package ru.hd.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Session;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hd.jpa.Account;
+import ru.hd.jpa.Client;
+import ru.hd.jpa.TransactionRecord;
+import ru.hd.model.AccountStatus;
+import ru.hd.model.Currency;
+import ru.hd.model.TransactionStatus;
+import ru.hd.model.TransactionType;
+import testutil.PostgresTestDatabase;
+import testutil.TestDataGenerator;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Вставки в секунду: по строке на запрос, как было при IDENTITY, против пакетной вставки с id из
+// pooled-последовательности. Цифры пишутся в лог и зависят от сети и диска, поэтому не проверяются.
+// Для переписывания пакета в один многострочный INSERT в URL нужен reWriteBatchedInserts=true
+@EnabledIfSystemProperty(named = PostgresTestDatabase.URL_PROPERTY, matches = ".+")
+class TransactionInsertBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionInsertBenchmarkTest.class);
+
+    private static final int ROWS = 20_000;
+    private static final int WARMUP_ROWS = 2_000;
+
+    // IDENTITY возвращал id каждой строки отдельным INSERT ... RETURNING, без пакетов
+    private static final String INSERT_RETURNING_SQL =
+            "INSERT INTO transactions (id, amount, type, status, from_account_id, to_account_id, created_at, updated_at) " +
+                    "VALUES (nextval('transactions_seq'), ?, 'TRANSFER', 'COMPLETED', ?, ?, ?, ?) RETURNING id";
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static Long fromAccountId;
+    private static Long toAccountId;
+
+    @BeforeAll
+    static void setupEntityManagerFactory() throws Exception {
+        entityManagerFactory = PostgresTestDatabase.createEntityManagerFactory(Map.of(
+                "hibernate.jdbc.batch_size", "500",
+                "hibernate.order_inserts", "true"));
+        try (Session session = getNewSession()) {
+            Client client = Client.builder()
+                    .fullName("Тестовый Клиент")
+                    .phoneNumber(TestDataGenerator.generateUniquePhone())
+                    .inn(TestDataGenerator.generateUniqueINN())
+                    .address("ул. Тестовая, 1")
+                    .build();
+            session.persist(client);
+            Account from = createAccount(client);
+            Account to = createAccount(client);
+            session.persist(from);
+            session.persist(to);
+            session.getTransaction().commit();
+            fromAccountId = from.getId();
+            toAccountId = to.getId();
+        }
+    }
+
+    @AfterAll
+    static void closeEntityManagerFactory() {
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @Test
+    void benchmarkRowByRowAgainstPooledBatchInserts() {
+        insertRowByRow(WARMUP_ROWS);
+        insertPooledBatch(WARMUP_ROWS);
+
+        long rowByRowNanos = insertRowByRow(ROWS);
+        long pooledNanos = insertPooledBatch(ROWS);
+
+        logger.info("Вставка {} записей транзакций: по строке {} в сек, пакетом с pooled-id {} в сек",
+                ROWS, perSecond(rowByRowNanos), perSecond(pooledNanos));
+    }
+
+    private long insertRowByRow(int rows) {
+        try (Session session = getNewSession()) {
+            long startedAt = System.nanoTime();
+            int inserted = session.doReturningWork(connection -> {
+                Timestamp now = Timestamp.from(Instant.now());
+                int count = 0;
+                try (PreparedStatement statement = connection.prepareStatement(INSERT_RETURNING_SQL)) {
+                    for (int i = 0; i < rows; i++) {
+                        statement.setBigDecimal(1, BigDecimal.ONE);
+                        statement.setLong(2, fromAccountId);
+                        statement.setLong(3, toAccountId);
+                        statement.setTimestamp(4, now);
+                        statement.setTimestamp(5, now);
+                        statement.executeQuery().close();
+                        count++;
+                    }
+                }
+                return count;
+            });
+            session.getTransaction().commit();
+            assertEquals(rows, inserted);
+            return System.nanoTime() - startedAt;
+        }
+    }
+
+    private long insertPooledBatch(int rows) {
+        try (Session session = getNewSession()) {
+            long startedAt = System.nanoTime();
+            Account from = session.getReference(Account.class, fromAccountId);
+            Account to = session.getReference(Account.class, toAccountId);
+            for (int i = 0; i < rows; i++) {
+                session.persist(TransactionRecord.builder()
+                        .amount(BigDecimal.ONE)
+                        .type(TransactionType.TRANSFER)
+                        .status(TransactionStatus.COMPLETED)
+                        .fromAccount(from)
+                        .toAccount(to)
+                        .build());
+                if ((i + 1) % 500 == 0) {
+                    session.flush();
+                    session.clear();
+                    from = session.getReference(Account.class, fromAccountId);
+                    to = session.getReference(Account.class, toAccountId);
+                }
+            }
+            session.getTransaction().commit();
+            return System.nanoTime() - startedAt;
+        }
+    }
+
+    private static long perSecond(long nanos) {
+        return ROWS * 1_000_000_000L / Math.max(nanos, 1);
+    }
+
+    private static Account createAccount(Client client) {
+        return Account.builder()
+                .accountNumber(TestDataGenerator.generateAccountNumber())
+                .bik(TestDataGenerator.generateBIK())
+                .balance(BigDecimal.ZERO)
+                .currency(Currency.RUB)
+                .status(AccountStatus.OPEN)
+                .client(client)
+                .build();
+    }
+
+    private static Session getNewSession() {
+        Session session = entityManagerFactory.createEntityManager().unwrap(Session.class);
+        session.beginTransaction();
+        return session;
+    }
+}
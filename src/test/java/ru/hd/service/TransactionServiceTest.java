@@ -3,23 +3,39 @@ package ru.hd.service;
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.Persistence;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
+import ru.hd.exception.AccountClosedException;
 import ru.hd.exception.BankingOperationException;
-import ru.hd.exception.InvalidAccountStatusException;
 import ru.hd.exception.InvalidCurrencyException;
 import ru.hd.jpa.Account;
 import ru.hd.jpa.Client;
 import ru.hd.jpa.TransactionRecord;
 import ru.hd.model.AccountStatus;
 import ru.hd.model.Currency;
+import ru.hd.model.SortCriteria;
+import ru.hd.model.SortKey;
+import ru.hd.model.TransactionDto;
+import ru.hd.model.TransactionFilter;
+import ru.hd.model.TransactionKey;
+import ru.hd.model.TransactionSortField;
+import ru.hd.model.TransactionStatus;
 import ru.hd.model.TransactionType;
+import ru.hd.model.TransferCommand;
+import ru.hd.model.TransferMode;
+import ru.hd.model.TransferResult;
 import testutil.TestDataGenerator;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -282,6 +298,229 @@ class TransactionServiceTest {
         }
     }
 
+    @Test
+    void testSuccessfulOptimisticTransfer() throws BankingOperationException {
+        TransactionService optimisticService = new TransactionService(TransferMode.OPTIMISTIC);
+        try (Session session = getNewSession()) {
+            Client client = createTestClient(session);
+            Account from = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account to = createTestAccount(client, BigDecimal.valueOf(500));
+            session.persist(from);
+            session.persist(to);
+            session.getTransaction().commit();
+            Long initialVersion = from.getVersion();
+
+            optimisticService.transfer(session, from.getId(), to.getId(), BigDecimal.valueOf(200));
+
+            session.beginTransaction();
+            session.refresh(from);
+            session.refresh(to);
+            assertEquals(800, from.getBalance().intValue());
+            assertEquals(700, to.getBalance().intValue());
+            assertTrue(from.getVersion() > initialVersion);
+        }
+    }
+
+    @Test
+    void testTransferBatchReportsPerItemOutcome() {
+        try (Session session = getNewSession()) {
+            Client client = createTestClient(session);
+            Account first = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account second = createTestAccount(client, BigDecimal.valueOf(100));
+            Account closed = createTestAccount(client, BigDecimal.valueOf(100));
+            closed.setStatus(AccountStatus.CLOSED);
+            session.persist(first);
+            session.persist(second);
+            session.persist(closed);
+            session.getTransaction().commit();
+
+            Long nonExistentAccountId = ThreadLocalRandom.current().nextLong(1_000_000L, 2_000_000L);
+            List<TransferResult> results = transactionService.transferBatch(session, List.of(
+                    new TransferCommand(first.getId(), second.getId(), BigDecimal.valueOf(300)),
+                    new TransferCommand(second.getId(), first.getId(), BigDecimal.valueOf(200)),
+                    new TransferCommand(second.getId(), first.getId(), BigDecimal.valueOf(1000)),
+                    new TransferCommand(first.getId(), closed.getId(), BigDecimal.valueOf(10)),
+                    new TransferCommand(first.getId(), nonExistentAccountId, BigDecimal.valueOf(10)),
+                    new TransferCommand(first.getId(), first.getId(), BigDecimal.valueOf(10))
+            ));
+
+            assertEquals(6, results.size());
+            assertEquals(TransactionStatus.COMPLETED, results.get(0).status());
+            assertNotNull(results.get(0).transactionId());
+            assertEquals(TransactionStatus.COMPLETED, results.get(1).status());
+            assertEquals(TransactionStatus.FAILED, results.get(2).status());
+            assertEquals(TransactionStatus.FAILED, results.get(3).status());
+            assertEquals(TransactionStatus.FAILED, results.get(4).status());
+            assertEquals(TransactionStatus.FAILED, results.get(5).status());
+
+            session.beginTransaction();
+            session.refresh(first);
+            session.refresh(second);
+            session.refresh(closed);
+            assertEquals(900, first.getBalance().intValue());
+            assertEquals(200, second.getBalance().intValue());
+            assertEquals(100, closed.getBalance().intValue());
+        }
+    }
+
+    @Test
+    void testTransferPipelineAppliesQueuedTransfers() throws Exception {
+        try (Session session = getNewSession();
+             TransferPipeline pipeline = new TransferPipeline(
+                     entityManagerFactory.unwrap(SessionFactory.class), 100, 2, 10)) {
+            Client client = createTestClient(session);
+            Account from = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account to = createTestAccount(client, BigDecimal.valueOf(500));
+            session.persist(from);
+            session.persist(to);
+            session.getTransaction().commit();
+
+            pipeline.start();
+            TransferResult completed = pipeline.submit(from.getId(), to.getId(), BigDecimal.valueOf(300))
+                    .get(10, TimeUnit.SECONDS);
+            TransferResult rejected = pipeline.submit(from.getId(), to.getId(), BigDecimal.valueOf(5000))
+                    .get(10, TimeUnit.SECONDS);
+
+            assertEquals(TransactionStatus.COMPLETED, completed.status());
+            assertEquals(TransactionStatus.FAILED, rejected.status());
+
+            session.beginTransaction();
+            session.refresh(from);
+            session.refresh(to);
+            assertEquals(700, from.getBalance().intValue());
+            assertEquals(800, to.getBalance().intValue());
+            assertEquals(TransactionStatus.COMPLETED,
+                    session.find(TransactionRecord.class, completed.transactionId()).getStatus());
+            assertEquals(TransactionStatus.FAILED,
+                    session.find(TransactionRecord.class, rejected.transactionId()).getStatus());
+        }
+    }
+
+    @Test
+    void testKeysetPagingOrdersByCreationTimeAndId() throws BankingOperationException {
+        try (Session session = getNewSession()) {
+            Client client = createTestClient(session);
+            Account from = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account to = createTestAccount(client, BigDecimal.valueOf(0));
+            session.persist(from);
+            session.persist(to);
+            session.getTransaction().commit();
+
+            for (int i = 1; i <= 3; i++) {
+                transactionService.transfer(session, from.getId(), to.getId(), BigDecimal.valueOf(i));
+            }
+
+            List<TransactionRecord> all = transactionService.getAllTransactions(session);
+            TransactionRecord anchor = all.get(all.size() - 3);
+            List<TransactionDto> page = transactionService.getTransactionsAfter(session,
+                    new TransactionKey(anchor.getCreatedAt(), anchor.getId()), 0, 10);
+
+            assertEquals(all.subList(all.size() - 2, all.size()).stream().map(TransactionRecord::getId).toList(),
+                    page.stream().map(TransactionDto::id).toList());
+            assertEquals(from.getAccountNumber(), page.getFirst().fromAccountNumber());
+            assertEquals(to.getAccountNumber(), page.getFirst().toAccountNumber());
+        }
+    }
+
+    @Test
+    void testFilteredPagingSortsByAmountDescending() throws BankingOperationException {
+        try (Session session = getNewSession()) {
+            Client client = createTestClient(session);
+            Account from = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account to = createTestAccount(client, BigDecimal.valueOf(0));
+            session.persist(from);
+            session.persist(to);
+            session.getTransaction().commit();
+
+            for (int amount : new int[]{30, 10, 50, 20, 40}) {
+                transactionService.transfer(session, from.getId(), to.getId(), BigDecimal.valueOf(amount));
+            }
+
+            TransactionFilter filter = new TransactionFilter(null, null, to.getId(), TransactionType.TRANSFER,
+                    TransactionStatus.COMPLETED, BigDecimal.valueOf(15), BigDecimal.valueOf(45));
+            SortCriteria<TransactionSortField> sort = new SortCriteria<>(TransactionSortField.AMOUNT, true);
+
+            List<TransactionDto> firstPage = transactionService.getTransactionsAfter(session, filter, sort, null, 0, 2);
+            SortKey after = TransactionService.sortKeyOf(firstPage.getLast(), TransactionSortField.AMOUNT);
+            List<TransactionDto> secondPage = transactionService.getTransactionsAfter(session, filter, sort, after, 0, 2);
+
+            assertEquals(List.of(40, 30), firstPage.stream().map(t -> t.amount().intValue()).toList());
+            assertEquals(List.of(20), secondPage.stream().map(t -> t.amount().intValue()).toList());
+            assertEquals(3, transactionService.countTransactions(session, filter));
+        }
+    }
+
+    @Test
+    void testStatementMergesDebitsAndCreditsInOrder() throws BankingOperationException {
+        try (Session session = getNewSession()) {
+            Client client = createTestClient(session);
+            Account account = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account other = createTestAccount(client, BigDecimal.valueOf(1000));
+            Account unrelated = createTestAccount(client, BigDecimal.valueOf(1000));
+            session.persist(account);
+            session.persist(other);
+            session.persist(unrelated);
+            session.getTransaction().commit();
+
+            transactionService.transfer(session, account.getId(), other.getId(), BigDecimal.valueOf(100));
+            transactionService.transfer(session, other.getId(), account.getId(), BigDecimal.valueOf(50));
+            transactionService.transfer(session, other.getId(), unrelated.getId(), BigDecimal.valueOf(25));
+            transactionService.transfer(session, account.getId(), other.getId(), BigDecimal.valueOf(10));
+
+            List<TransactionDto> statement = transactionService.getStatementPage(
+                    session, account.getId(), null, null, null, 0, 10);
+
+            assertEquals(List.of(100, 50, 10), statement.stream().map(t -> t.amount().intValue()).toList());
+
+            TransactionDto first = statement.getFirst();
+            List<TransactionDto> rest = transactionService.getStatementPage(session, account.getId(), null, null,
+                    new TransactionKey(first.createdAt(), first.id()), 1, 10);
+            assertEquals(List.of(10), rest.stream().map(t -> t.amount().intValue()).toList());
+        }
+    }
+
+    @Test
+    void testVersionConflictIsRetriedWithClearedSession() throws BankingOperationException {
+        Long accountId;
+        try (Session session = getNewSession()) {
+            Client client = createTestClient(session);
+            Account account = createTestAccount(client, BigDecimal.valueOf(1000));
+            session.persist(account);
+            session.getTransaction().commit();
+            accountId = account.getId();
+        }
+
+        TransactionExecutor executor = new TransactionExecutor(3, 1, 1);
+        List<Account> loaded = new ArrayList<>();
+        long versionConflictsBefore = TransactionExecutor.getMetrics().getVersionConflicts();
+        try (Session session = entityManagerFactory.createEntityManager().unwrap(Session.class)) {
+            executor.execute(session, () -> {
+                Account account = session.get(Account.class, accountId);
+                loaded.add(account);
+                if (loaded.size() == 1) {
+                    // Другая сессия успевает изменить счет между чтением и записью
+                    try (Session other = getNewSession()) {
+                        Account concurrent = other.get(Account.class, accountId);
+                        concurrent.setBalance(concurrent.getBalance().add(BigDecimal.valueOf(100)));
+                        other.getTransaction().commit();
+                    }
+                }
+                account.setBalance(account.getBalance().subtract(BigDecimal.valueOf(300)));
+                return null;
+            });
+
+            assertEquals(2, loaded.size());
+            // После отката сессия очищена: вторая попытка читает счет заново, а не устаревший объект
+            assertNotSame(loaded.get(0), loaded.get(1));
+            assertFalse(session.contains(loaded.get(0)));
+        }
+        assertEquals(versionConflictsBefore + 1, TransactionExecutor.getMetrics().getVersionConflicts());
+
+        try (Session session = getNewSession()) {
+            assertEquals(800, session.get(Account.class, accountId).getBalance().intValue());
+        }
+    }
+
     @Test
     void testSuccessfulDeposit() throws BankingOperationException {
         try (Session session = getNewSession()) {
@@ -307,7 +546,7 @@ class TransactionServiceTest {
             session.persist(account);
             session.getTransaction().commit();
 
-            assertThrows(InvalidAccountStatusException.class,
+            assertThrows(AccountClosedException.class,
                     () -> transactionService.depositToAccount(session, account, BigDecimal.valueOf(300)));
 
             session.beginTransaction();
@@ -375,7 +614,7 @@ class TransactionServiceTest {
             session.persist(account);
             session.getTransaction().commit();
 
-            assertThrows(BankingOperationException.class,
+            assertThrows(AccountClosedException.class,
                     () -> transactionService.withdrawFromAccount(session, account, BigDecimal.valueOf(200)));
 
             session.beginTransaction();
@@ -384,6 +623,28 @@ class TransactionServiceTest {
         }
     }
 
+    // Счет закрыт в БД, а в сессии остался открытым: причина отказа берется из строки, а не из сессии
+    @Test
+    void testWithdrawFromAccountClosedOutsideSession() {
+        try (Session session = getNewSession()) {
+            Client client = createTestClient(session);
+            Account account = createTestAccount(client, BigDecimal.valueOf(500));
+            session.persist(account);
+            session.getTransaction().commit();
+
+            try (Session otherSession = getNewSession()) {
+                otherSession.createNativeMutationQuery("UPDATE accounts SET status = 'CLOSED' WHERE id = :id")
+                        .setParameter("id", account.getId())
+                        .executeUpdate();
+                otherSession.getTransaction().commit();
+            }
+
+            assertEquals(AccountStatus.OPEN, account.getStatus());
+            assertThrows(AccountClosedException.class,
+                    () -> transactionService.withdrawFromAccount(session, account, BigDecimal.valueOf(200)));
+        }
+    }
+
     @Test
     void testWithdrawWithInsufficientFunds() {
         try (Session session = getNewSession()) {
@@ -435,6 +696,44 @@ class TransactionServiceTest {
         }
     }
 
+    @Test
+    void testConcurrentDepositsDoNotLoseUpdates() throws Exception {
+        Account account;
+        try (Session session = getNewSession()) {
+            Client client = createTestClient(session);
+            account = createTestAccount(client, BigDecimal.ZERO);
+            session.persist(account);
+            session.getTransaction().commit();
+        }
+
+        int writers = 8;
+        int depositsPerWriter = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < depositsPerWriter; j++) {
+                        try (Session session = entityManagerFactory.createEntityManager().unwrap(Session.class)) {
+                            transactionService.depositToAccount(session, account, BigDecimal.TEN);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try (Session session = getNewSession()) {
+            Account updatedAccount = session.find(Account.class, account.getId());
+            assertEquals(writers * depositsPerWriter * 10, updatedAccount.getBalance().intValue());
+        }
+    }
+
     @Test
     void testTransactionRecordAfterDeposit() throws BankingOperationException {
         try (Session session = getNewSession()) {
@@ -446,9 +745,8 @@ class TransactionServiceTest {
             transactionService.depositToAccount(session, account, BigDecimal.valueOf(300));
 
             session.beginTransaction();
-            List<TransactionRecord> transactions = transactionService.getTransactions(session,0, 10);
-            assertFalse(transactions.isEmpty());
-            TransactionRecord record = transactions.getLast();
+            TransactionRecord record = getLastTransaction(session, account.getId());
+            assertNotNull(record);
             assertEquals(TransactionType.DEPOSIT, record.getType());
             assertEquals(BigDecimal.valueOf(300), record.getAmount());
             assertEquals(account.getId(), record.getToAccount().getId());
@@ -466,15 +764,23 @@ class TransactionServiceTest {
             transactionService.withdrawFromAccount(session, account, BigDecimal.valueOf(200));
 
             session.beginTransaction();
-            List<TransactionRecord> transactions = transactionService.getTransactions(session, 0, 10);
-            assertFalse(transactions.isEmpty());
-            TransactionRecord record = transactions.getLast();
+            TransactionRecord record = getLastTransaction(session, account.getId());
+            assertNotNull(record);
             assertEquals(TransactionType.WITHDRAWAL, record.getType());
             assertEquals(BigDecimal.valueOf(200), record.getAmount());
             assertEquals(account.getId(), record.getFromAccount().getId());
         }
     }
 
+    // База общая для всех тестов класса, поэтому запись ищется по счету теста, а не по позиции в журнале
+    private TransactionRecord getLastTransaction(Session session, Long accountId) {
+        return session.createQuery("FROM TransactionRecord t WHERE t.fromAccount.id = :accountId "
+                        + "OR t.toAccount.id = :accountId ORDER BY t.id DESC", TransactionRecord.class)
+                .setParameter("accountId", accountId)
+                .setMaxResults(1)
+                .uniqueResult();
+    }
+
     private Client createTestClient(Session session) {
         Client client = Client.builder()
                 .fullName("Тестовый Клиент")
@@ -0,0 +1,42 @@
+package testutil;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.HashMap;
+import java.util.Map;
+
+// Настоящий PostgreSQL для проверок, которые на H2 не воспроизводятся: -Dtest.postgres.url=jdbc:postgresql://...
+// (и при необходимости test.postgres.user / test.postgres.password). Схема накатывается changelog'ом
+public class PostgresTestDatabase {
+    public static final String URL_PROPERTY = "test.postgres.url";
+
+    public static EntityManagerFactory createEntityManagerFactory(Map<String, String> extraProperties) throws Exception {
+        String url = System.getProperty(URL_PROPERTY);
+        String user = System.getProperty("test.postgres.user", "postgres");
+        String password = System.getProperty("test.postgres.password", "");
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            Database database = DatabaseFactory.getInstance()
+                    .findCorrectDatabaseImplementation(new JdbcConnection(connection));
+            new Liquibase("db/changelog/changelog.xml", new ClassLoaderResourceAccessor(), database).update("");
+        }
+
+        Map<String, String> properties = new HashMap<>(Map.of(
+                "jakarta.persistence.jdbc.driver", "org.postgresql.Driver",
+                "jakarta.persistence.jdbc.url", url,
+                "jakarta.persistence.jdbc.user", user,
+                "jakarta.persistence.jdbc.password", password,
+                "hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect",
+                "hibernate.hbm2ddl.auto", "none",
+                "hibernate.show_sql", "false"));
+        properties.putAll(extraProperties);
+        return Persistence.createEntityManagerFactory("test-persistence-unit", properties);
+    }
+}